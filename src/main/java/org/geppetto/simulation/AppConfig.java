@@ -2,12 +2,48 @@
 
 package org.geppetto.simulation;
 
+import java.util.zip.Deflater;
+
+import org.geppetto.simulation.manager.GeppettoModelCache;
+import org.geppetto.simulation.manager.ImportTypesPrefetcher;
+import org.geppetto.simulation.manager.TimeSeriesStore;
+import org.geppetto.simulation.storage.ContentAddressedStore;
+
 public class AppConfig
 {
 
+	// the defaults are also used by the classes they configure when there is no AppConfig, e.g. outside of a Spring context
+	public static final int DEFAULT_SIMULATION_CAPACITY = 10;
+	public static final int DEFAULT_PROJECT_PARALLELISM = 1;
+	public static final int DEFAULT_RESULTS_UPLOAD_PARALLELISM = 4;
+	public static final int DEFAULT_RESULTS_COMPRESSION_LEVEL = Deflater.DEFAULT_COMPRESSION;
+	public static final int DEFAULT_TIME_SERIES_MEMORY_BUDGET = 256;
+	public static final long DEFAULT_MODEL_CACHE_SIZE = 2000000;
+	public static final boolean DEFAULT_PREFETCH_IMPORT_TYPES = false;
+	public static final boolean DEFAULT_VERIFY_STORED_BLOBS = false;
+
 	private int _maxBufferSize;
 	private int _updateCycle;
-	private int _simulationCapacity;
+	private int _simulationCapacity = DEFAULT_SIMULATION_CAPACITY;
+	private int _projectParallelism = DEFAULT_PROJECT_PARALLELISM;
+	private String _runQueueJournal;
+	private int _resultsUploadParallelism = DEFAULT_RESULTS_UPLOAD_PARALLELISM;
+	private int _resultsCompressionLevel = DEFAULT_RESULTS_COMPRESSION_LEVEL;
+	private int _timeSeriesMemoryBudget = DEFAULT_TIME_SERIES_MEMORY_BUDGET;
+	private long _modelCacheSize = DEFAULT_MODEL_CACHE_SIZE;
+	private boolean _prefetchImportTypes = DEFAULT_PREFETCH_IMPORT_TYPES;
+	private boolean _verifyStoredBlobs = DEFAULT_VERIFY_STORED_BLOBS;
+
+	/**
+	 * Configures the caches shared by the whole application once the properties are set, called by Spring
+	 */
+	public void init()
+	{
+		TimeSeriesStore.getInstance().setMemoryBudget(_timeSeriesMemoryBudget * 1024L * 1024L);
+		GeppettoModelCache.getInstance().setCapacity(_modelCacheSize);
+		ImportTypesPrefetcher.getInstance().setEnabled(_prefetchImportTypes);
+		ContentAddressedStore.getInstance().setVerify(_verifyStoredBlobs);
+	}
 
 	public int getSimulationCapacity()
 	{
@@ -19,6 +55,110 @@ public class AppConfig
 		this._simulationCapacity = simulationCapacity;
 	}
 
+	/**
+	 * @return how many experiments of the same project can run at the same time, with more than one every run works on its own copy of the project
+	 */
+	public int getProjectParallelism()
+	{
+		return _projectParallelism;
+	}
+
+	public void setProjectParallelism(int projectParallelism)
+	{
+		this._projectParallelism = projectParallelism;
+	}
+
+	/**
+	 * @return the file where the pending experiments are journaled, if not set the journal is kept in .geppetto in the home directory of the user running the server
+	 */
+	public String getRunQueueJournal()
+	{
+		return _runQueueJournal;
+	}
+
+	public void setRunQueueJournal(String runQueueJournal)
+	{
+		this._runQueueJournal = runQueueJournal;
+	}
+
+	/**
+	 * @return how many result files can be uploaded at the same time
+	 */
+	public int getResultsUploadParallelism()
+	{
+		return _resultsUploadParallelism;
+	}
+
+	public void setResultsUploadParallelism(int resultsUploadParallelism)
+	{
+		this._resultsUploadParallelism = resultsUploadParallelism;
+	}
+
+	/**
+	 * @return the compression level of the zip of the RAW results, 0 stores them without compression
+	 */
+	public int getResultsCompressionLevel()
+	{
+		return _resultsCompressionLevel;
+	}
+
+	public void setResultsCompressionLevel(int resultsCompressionLevel)
+	{
+		this._resultsCompressionLevel = resultsCompressionLevel;
+	}
+
+	/**
+	 * @return how many MB of recorded values read from the recordings are kept on the heap, the least recently used are moved to memory mapped files beyond that
+	 */
+	public int getTimeSeriesMemoryBudget()
+	{
+		return _timeSeriesMemoryBudget;
+	}
+
+	public void setTimeSeriesMemoryBudget(int timeSeriesMemoryBudget)
+	{
+		this._timeSeriesMemoryBudget = timeSeriesMemoryBudget;
+	}
+
+	/**
+	 * @return how many model elements the parsed Geppetto models kept to open projects faster can have in total, 0 disables the cache
+	 */
+	public long getModelCacheSize()
+	{
+		return _modelCacheSize;
+	}
+
+	public void setModelCacheSize(long modelCacheSize)
+	{
+		this._modelCacheSize = modelCacheSize;
+	}
+
+	/**
+	 * @return true if the types which are not resolved automatically are imported in the background after a project is opened
+	 */
+	public boolean getPrefetchImportTypes()
+	{
+		return _prefetchImportTypes;
+	}
+
+	public void setPrefetchImportTypes(boolean prefetchImportTypes)
+	{
+		this._prefetchImportTypes = prefetchImportTypes;
+	}
+
+	/**
+	 * @return true if the store of the results is asked whether it still has a blob before reusing it, otherwise the index of the stored blobs is trusted
+	 */
+	public boolean getVerifyStoredBlobs()
+	{
+		return _verifyStoredBlobs;
+	}
+
+	public void setVerifyStoredBlobs(boolean verifyStoredBlobs)
+	{
+		this._verifyStoredBlobs = verifyStoredBlobs;
+	}
+
 	public int getMaxBufferSize()
 	{
 		return _maxBufferSize;
@@ -0,0 +1,21 @@
+package org.geppetto.simulation;
+
+import java.nio.ByteBuffer;
+
+import org.geppetto.core.common.GeppettoExecutionException;
+
+/**
+ * Receives the binary encoding of an experiment state one chunk at the time, e.g. to write each chunk to the socket of the client as soon as it is ready instead of building the whole
+ * message first. The layout of the chunks is described in {@link org.geppetto.simulation.utilities.ExperimentStateEncoder}.
+ */
+public interface IExperimentStateConsumer
+{
+
+	/**
+	 * @param chunk
+	 *            the bytes of the chunk between its position and its limit, the buffer is reused for the following chunks so it has to be consumed or copied before returning
+	 * @throws GeppettoExecutionException
+	 */
+	void consume(ByteBuffer chunk) throws GeppettoExecutionException;
+
+}
@@ -0,0 +1,28 @@
+
+package org.geppetto.simulation;
+
+import java.util.Map;
+
+import org.geppetto.core.common.GeppettoExecutionException;
+import org.geppetto.core.data.model.IAspectConfiguration;
+
+/**
+ * Implemented by the callback listeners which accept the results of a simulation while it is running. A simulator supporting it checks whether the ISimulatorCallbackListener it was
+ * initialized with is also an IStepResultsListener and pushes the values of the recorded variables every time it has processed a batch of steps. The recording handed over by endOfSteps
+ * is still the complete result of the simulation.
+ */
+public interface IStepResultsListener
+{
+
+	/**
+	 * @param aspectConfiguration
+	 *            the aspect the simulator is simulating
+	 * @param steps
+	 *            how many steps are in this batch
+	 * @param values
+	 *            for every recorded variable, identified by its instance path, the values it took during the steps of this batch
+	 * @throws GeppettoExecutionException
+	 */
+	void stepsProcessed(IAspectConfiguration aspectConfiguration, int steps, Map<String, double[]> values) throws GeppettoExecutionException;
+
+}
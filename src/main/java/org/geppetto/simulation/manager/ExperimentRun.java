@@ -0,0 +1,659 @@
+
+package org.geppetto.simulation.manager;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.eclipse.emf.common.util.EList;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.geppetto.core.common.GeppettoExecutionException;
+import org.geppetto.core.common.GeppettoInitializationException;
+import org.geppetto.core.conversion.AConversion;
+import org.geppetto.core.conversion.ConversionException;
+import org.geppetto.core.conversion.IConversion;
+import org.geppetto.core.data.DataManagerHelper;
+import org.geppetto.core.data.model.ExperimentStatus;
+import org.geppetto.core.data.model.IAspectConfiguration;
+import org.geppetto.core.data.model.IExperiment;
+import org.geppetto.core.data.model.ISimulationResult;
+import org.geppetto.core.data.model.ISimulatorConfiguration;
+import org.geppetto.core.data.model.ResultsFormat;
+import org.geppetto.core.manager.Scope;
+import org.geppetto.core.model.GeppettoModelAccess;
+import org.geppetto.core.model.IModelInterpreter;
+import org.geppetto.core.services.ServiceCreator;
+import org.geppetto.core.services.registry.ServicesRegistry;
+import org.geppetto.core.services.registry.ServicesRegistry.ConversionServiceKey;
+import org.geppetto.core.simulation.ISimulatorCallbackListener;
+import org.geppetto.core.simulator.ASimulator;
+import org.geppetto.core.simulator.ISimulator;
+import org.geppetto.model.DomainModel;
+import org.geppetto.model.ExperimentState;
+import org.geppetto.model.GeppettoFactory;
+import org.geppetto.model.ModelFormat;
+import org.geppetto.model.VariableValue;
+import org.geppetto.model.util.GeppettoModelException;
+import org.geppetto.model.util.PointerUtility;
+import org.geppetto.model.values.Pointer;
+import org.geppetto.model.values.TimeSeries;
+import org.geppetto.model.values.ValuesFactory;
+import org.geppetto.simulation.AppConfig;
+import org.geppetto.simulation.IExperimentListener;
+import org.geppetto.simulation.IStepResultsListener;
+import org.geppetto.simulation.SimulatorRuntimeStatus;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * The ExperimentRun is created when an experiment can be executed, during the init phase all the needed services are created. It is executed by the pool of the ExperimentRunManager.
+ * 
+ * @author dandromereschi
+ * @author matteocantarelli
+ * 
+ */
+public class ExperimentRun implements Runnable, ISimulatorCallbackListener, IStepResultsListener
+{
+
+	private static Log logger = LogFactory.getLog(ExperimentRun.class);
+
+	private static final String TIME = "time(StateVariable)";
+
+	@Autowired
+	public AppConfig appConfig;
+
+	private IExperiment experiment;
+
+	private Map<String, ISimulator> simulatorServices = new ConcurrentHashMap<>();
+
+	private Map<String, IConversion> conversionServices = new ConcurrentHashMap<>();
+
+	// This map contains the simulator runtime for each one of the simulators
+	private Map<String, SimulatorRuntime> simulatorRuntimes = new ConcurrentHashMap<String, SimulatorRuntime>();
+
+	private IExperimentListener listener;
+
+	private RuntimeProject runtimeProject;
+
+	// where the simulator steps are executed, shared by all the runs
+	private Executor simulatorExecutor;
+
+	// where the results of the simulators are uploaded, shared by all the runs
+	private ResultsUploadPipeline resultsPipeline;
+
+	// the values pushed by the simulators while the experiment is running, by canonical instance path of the recorded variable
+	private Map<String, PartialResult> partialResults = new LinkedHashMap<String, PartialResult>();
+
+	// set when something happened which requires the run loop to check the simulators again
+	private boolean runStateChanged = false;
+
+	/**
+	 * @param experiment
+	 * @param runtimeExperiment
+	 * @param project
+	 * @param geppettoCallbackListener
+	 * @param listener
+	 * @param simulatorExecutor
+	 * @param resultsPipeline
+	 */
+	public ExperimentRun(IExperiment experiment, RuntimeProject runtimeProject, IExperimentListener listener, Executor simulatorExecutor, ResultsUploadPipeline resultsPipeline)
+	{
+		this.experiment = experiment;
+		this.runtimeProject = runtimeProject;
+		this.listener = listener;
+		this.simulatorExecutor = simulatorExecutor;
+		this.resultsPipeline = resultsPipeline;
+	}
+
+	/**
+	 * @param experiment
+	 * @throws GeppettoInitializationException
+	 */
+	private void init(IExperiment experiment) throws GeppettoInitializationException
+	{
+		try
+		{
+			long initStart = System.currentTimeMillis();
+			GeppettoModelAccess modelAccess = new GeppettoModelAccess(runtimeProject.getGeppettoModel());
+			List<? extends IAspectConfiguration> aspectConfigs = experiment.getAspectConfigurations();
+			// the conversions and the simulators of the aspects share and change the Geppetto model and the experiment state, the aspects are initialized one after the other
+			for(IAspectConfiguration aspectConfig : aspectConfigs)
+			{
+				initAspect(aspectConfig, modelAccess);
+			}
+			logger.info("Initialized " + aspectConfigs.size() + " aspects in " + (System.currentTimeMillis() - initStart) + " ms");
+		}
+		catch(GeppettoInitializationException e)
+		{
+			throw e;
+		}
+		catch(Exception e)
+		{
+			throw new GeppettoInitializationException(e);
+		}
+	}
+
+	/**
+	 * Creates the services for one aspect of the experiment, converts its model if needed and initializes its simulator
+	 * 
+	 * @param aspectConfig
+	 * @param modelAccess
+	 * @throws Exception
+	 */
+	private void initAspect(IAspectConfiguration aspectConfig, GeppettoModelAccess modelAccess) throws Exception
+	{
+		long aspectStart = System.currentTimeMillis();
+		ISimulatorConfiguration simConfig = aspectConfig.getSimulatorConfiguration();
+		String simulatorId = simConfig.getSimulatorId();
+		String instancePath = aspectConfig.getInstance();
+		Pointer pointer = PointerUtility.getPointer(runtimeProject.getGeppettoModel(), instancePath);
+
+		// We are taking the domain model for the last element of the pointer
+		DomainModel model = PointerUtility.getType(pointer).getDomainModel();
+
+		if(simConfig.getConversionServiceId() != null && !simConfig.getConversionServiceId().isEmpty())
+		{
+			AConversion conversionService = (AConversion) ServiceCreator.getNewServiceInstance(simConfig.getConversionServiceId());
+			conversionService.setScope(Scope.RUN);
+			conversionService.setProjectId(experiment.getParentProject().getId());
+			conversionService.setExperiment(experiment);
+			conversionServices.put(instancePath, conversionService);
+		}
+		ASimulator simulator = (ASimulator) ServiceCreator.getNewServiceInstance(simulatorId);
+		simulator.setProjectId(experiment.getParentProject().getId());
+		simulator.setExperiment(experiment);
+		simulatorServices.put(instancePath, simulator);
+		simulatorRuntimes.put(instancePath, new SimulatorRuntime());
+
+		// get conversion service
+		IConversion conversionService = null;
+		if(simConfig.getConversionServiceId() != null && !simConfig.getConversionServiceId().isEmpty())
+		{
+			conversionService = this.conversionServices.get(simConfig.getConversionServiceId());
+		}
+		IModelInterpreter modelService = runtimeProject.getModelInterpreter(pointer);
+
+		// TODO: Extract formats from model interpreters from within here somehow
+		List<ModelFormat> inputFormats = ServicesRegistry.getModelInterpreterServiceFormats(modelService);
+		List<ModelFormat> outputFormats = ServicesRegistry.getSimulatorServiceFormats(simulator);
+		if(inputFormats == null || inputFormats.isEmpty())
+		{
+			throw new GeppettoInitializationException("No supported formats for the model interpreter " + modelService.getName());
+		}
+		if(outputFormats == null || outputFormats.isEmpty())
+		{
+			throw new GeppettoInitializationException("No supported formats for the simulator " + simulator.getName());
+		}
+		DomainModel iConvertedModel = null;
+
+		if(conversionService != null)
+		{
+			// Read conversion supported model formats
+			List<ModelFormat> supportedInputFormats = conversionService.getSupportedInputs();
+			// FIXME: We can pass the model and the input format so it brings back a filtered list of outputs format
+			List<ModelFormat> supportedOutputFormats = conversionService.getSupportedOutputs();
+
+			// Check if real model formats and conversion supported model formats match
+			supportedInputFormats.retainAll(inputFormats);
+			supportedOutputFormats.retainAll(outputFormats);
+
+			// Try to convert until a input-output format combination works
+			for(ModelFormat inputFormat : supportedInputFormats)
+			{
+				if(iConvertedModel == null)
+				{
+					for(ModelFormat outputFormat : supportedOutputFormats)
+					{
+						try
+						{
+							iConvertedModel = conversionService.convert(model, outputFormat, aspectConfig, modelAccess);
+							break;
+						}
+						catch(ConversionException e)
+						{
+							throw new GeppettoInitializationException(e);
+						}
+					}
+				}
+			}
+		}
+		else
+		{
+			// Check format returned by the model interpreter matches with the one accepted by the simulator
+			if(Collections.disjoint(inputFormats, outputFormats) && inputFormats != null && outputFormats != null)
+			{
+				Map<ConversionServiceKey, List<IConversion>> conversionServices = ServicesRegistry.getConversionService(inputFormats, outputFormats);
+
+				for(Map.Entry<ConversionServiceKey, List<IConversion>> entry : conversionServices.entrySet())
+				{
+					if(iConvertedModel == null)
+					{
+						// FIXME: Assuming we will only have one conversion service
+						ConversionServiceKey conversionServiceKey = entry.getKey();
+						for(ModelFormat supportedModelFormat : entry.getValue().get(0).getSupportedOutputs(model))
+						{
+							// Verify supported outputs for this model
+							if(supportedModelFormat.getModelFormat().equalsIgnoreCase(conversionServiceKey.getOutputModelFormat().getModelFormat()))
+							{
+								((AConversion) entry.getValue().get(0)).setScope(Scope.RUN);
+								((AConversion) entry.getValue().get(0)).setProjectId(experiment.getParentProject().getId());
+								((AConversion) entry.getValue().get(0)).setExperiment(experiment);
+								iConvertedModel = entry.getValue().get(0).convert(model, conversionServiceKey.getOutputModelFormat(), aspectConfig, modelAccess);
+								break;
+							}
+						}
+					}
+				}
+			}
+		}
+
+		// code to initialize simulator
+		if(simulator != null)
+		{
+
+			long start = System.currentTimeMillis();
+			ExperimentState experimentState = runtimeProject.getRuntimeExperiment(experiment).getExperimentState();
+			if(iConvertedModel == null)
+			{
+				simulator.initialize(model, aspectConfig, experimentState, this, modelAccess);
+			}
+			else
+			{
+				simulator.initialize(iConvertedModel, aspectConfig, experimentState, this, modelAccess);
+			}
+			long end = System.currentTimeMillis();
+			logger.info("Finished initializing simulator, took " + (end - start) + " ms ");
+		}
+		logger.info("Aspect " + aspectConfig.getInstance() + " initialized in " + (System.currentTimeMillis() - aspectStart) + " ms");
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run()
+	{
+		try
+		{
+			// the lock of the run is not held while initializing, the callbacks of the simulators and of the results pipeline need it
+			init(experiment);
+
+			List<? extends IAspectConfiguration> aspectConfigs = experiment.getAspectConfigurations();
+			while(experiment.getStatus().equals(ExperimentStatus.RUNNING))
+			{
+				synchronized(this)
+				{
+					runStateChanged = false;
+				}
+
+				for(IAspectConfiguration aspectConfig : aspectConfigs)
+				{
+
+					String instancePath = aspectConfig.getInstance();
+					SimulatorRuntime simulatorRuntime = simulatorRuntimes.get(instancePath);
+					ISimulator simulator = simulatorServices.get(instancePath);
+
+					// if it's still stepping or completed we don't step again
+					if(!simulatorRuntime.getStatus().equals(SimulatorRuntimeStatus.STEPPING) && !simulatorRuntime.getStatus().equals(SimulatorRuntimeStatus.DONE))
+					{
+						// we advance the simulation for this simulator only if we are not already stepping
+						// note that some simulators might perform more than one step at the time (i.e. NEURON
+						// so the status will be STEPPING until they are all completed)
+
+						simulatorRuntime.setStatus(SimulatorRuntimeStatus.STEPPING);
+						simulatorExecutor.execute(new SimulatorRunTask(simulator, this));
+					}
+
+				}
+
+				if(checkAllSimulatorsAreDone())
+				{
+					experiment.setStatus(ExperimentStatus.COMPLETED);
+					experiment.updateEndDate();
+					DataManagerHelper.getDataManager().saveEntity(experiment.getParentProject());
+					logger.info("All simulators are done, experiment " + experiment.getId() + " was completed.");
+					break;
+				}
+
+				// there is nothing to do until a simulator is done, a simulator run terminates or the run is cancelled
+				synchronized(this)
+				{
+					while(!runStateChanged && experiment.getStatus().equals(ExperimentStatus.RUNNING))
+					{
+						wait();
+					}
+				}
+			}
+		}
+		catch(GeppettoInitializationException e)
+		{
+			// TODO How to make the error surface in some description?
+			externalProcessFailed("", e);
+			logger.error(e);
+		}
+		catch(InterruptedException e)
+		{
+			String errorMessage = "Error running experiment with name: (" + experiment.getName() + ") and id: " + experiment.getId();
+			externalProcessFailed(errorMessage, e);
+			Thread.currentThread().interrupt();
+		}
+		catch(RejectedExecutionException e)
+		{
+			// the simulators executor has been shut down
+			externalProcessFailed("Error stepping the simulators of experiment " + experiment.getId() + ": ", e);
+		}
+		try
+		{
+			Thread.sleep(500);
+		}
+		catch(InterruptedException e)
+		{
+			// we still need to notify the listener so that the run is released
+			Thread.currentThread().interrupt();
+		}
+
+		// and when done, notify about it
+		try
+		{
+			listener.experimentRunDone(this, experiment, runtimeProject);
+
+		}
+		catch(GeppettoExecutionException e)
+		{
+			String errorMessage = "Error running experiment with name: (" + experiment.getName() + ") and id: " + experiment.getId();
+			externalProcessFailed(errorMessage, e);
+			throw new RuntimeException("Post run experiment error", e);
+		}
+
+	}
+
+	/**
+	 * Wakes up the run loop, this is called every time something happens which might change the state of the run, i.e. a simulator is done, a simulator run terminates, the run is cancelled or
+	 * fails.
+	 */
+	synchronized void notifyRunStateChanged()
+	{
+		runStateChanged = true;
+		notifyAll();
+	}
+
+	/**
+	 * @return true if all the simulators associated with this experiment have completed their execution
+	 */
+	private synchronized boolean checkAllSimulatorsAreDone()
+	{
+		List<? extends IAspectConfiguration> aspectConfigs = experiment.getAspectConfigurations();
+		for(IAspectConfiguration aspectConfig : aspectConfigs)
+		{
+			try
+			{
+				String instancePath = aspectConfig.getInstance();
+				SimulatorRuntime simulatorRuntime = simulatorRuntimes.get(instancePath);
+				if(!simulatorRuntime.getStatus().equals(SimulatorRuntimeStatus.DONE))
+				{
+					return false;
+				}
+			}
+			catch(NullPointerException npe)
+			{
+				logger.error(npe);
+			}
+
+		}
+		return true;
+	}
+
+	/**
+	 * @throws GeppettoExecutionException
+	 */
+	protected void cancelRun() throws GeppettoExecutionException
+	{
+
+		logger.info("Canceling ExperimentRun");
+		experiment.setStatus(ExperimentStatus.CANCELED);
+
+		// iterate through aspects and instruct them to stop
+		// TODO Check
+		for(ISimulator simulator : simulatorServices.values())
+		{
+			if(simulator != null)
+			{
+				simulator.setInitialized(false);
+			}
+		}
+		notifyRunStateChanged();
+	}
+
+	/**
+	 * 
+	 */
+	public void release()
+	{
+		simulatorServices.clear();
+		conversionServices.clear();
+		simulatorRuntimes.clear();
+		synchronized(partialResults)
+		{
+			partialResults.clear();
+		}
+		// listener = null;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.geppetto.simulation.IStepResultsListener#stepsProcessed(org.geppetto.core.data.model.IAspectConfiguration, int, java.util.Map)
+	 */
+	@Override
+	public void stepsProcessed(IAspectConfiguration aspectConfiguration, int steps, Map<String, double[]> values) throws GeppettoExecutionException
+	{
+		synchronized(partialResults)
+		{
+			for(Map.Entry<String, double[]> value : values.entrySet())
+			{
+				PartialResult partialResult = partialResults.get(value.getKey());
+				if(partialResult == null)
+				{
+					Pointer pointer;
+					try
+					{
+						pointer = PointerUtility.getPointer(runtimeProject.getGeppettoModel(), value.getKey());
+					}
+					catch(GeppettoModelException e)
+					{
+						throw new GeppettoExecutionException(e);
+					}
+					partialResult = new PartialResult(pointer);
+					// the simulators use the canonical instance path, if not the variable is indexed by both
+					partialResults.put(pointer.getInstancePath(), partialResult);
+					partialResults.put(value.getKey(), partialResult);
+				}
+				partialResult.add(value.getValue());
+			}
+		}
+		SimulatorRuntime simulatorRuntime = simulatorRuntimes.get(aspectConfiguration.getInstance());
+		if(simulatorRuntime != null)
+		{
+			simulatorRuntime.setProcessedSteps(simulatorRuntime.getProcessedSteps() + steps);
+		}
+	}
+
+	/**
+	 * @param variables
+	 *            the instance paths of the variables to return, all of them if null
+	 * @param fromStep
+	 *            how many values of each variable the client already has, only the following ones are returned
+	 * @return the values the simulators have pushed so far, the state is a copy which is not updated by the following steps
+	 * @throws GeppettoExecutionException
+	 */
+	public ExperimentState getPartialExperimentState(List<String> variables, int fromStep) throws GeppettoExecutionException
+	{
+		ExperimentState experimentState = GeppettoFactory.eINSTANCE.createExperimentState();
+		experimentState.setExperimentId(experiment.getId());
+		experimentState.setProjectId(experiment.getParentProject().getId());
+		Set<String> instancePaths = null;
+		if(variables != null)
+		{
+			instancePaths = new LinkedHashSet<String>();
+			for(String variable : variables)
+			{
+				try
+				{
+					instancePaths.add(PointerUtility.getPointer(runtimeProject.getGeppettoModel(), variable).getInstancePath());
+				}
+				catch(GeppettoModelException e)
+				{
+					throw new GeppettoExecutionException(e);
+				}
+			}
+			instancePaths.add(TIME);
+		}
+		synchronized(partialResults)
+		{
+			// a variable is indexed by more than one path if the simulator doesn't use the canonical one
+			Collection<PartialResult> requested = new LinkedHashSet<PartialResult>();
+			if(instancePaths == null)
+			{
+				requested.addAll(partialResults.values());
+			}
+			else
+			{
+				for(String instancePath : instancePaths)
+				{
+					PartialResult partialResult = partialResults.get(instancePath);
+					if(partialResult != null)
+					{
+						requested.add(partialResult);
+					}
+				}
+			}
+			for(PartialResult partialResult : requested)
+			{
+				experimentState.getRecordedVariables().add(partialResult.toVariableValue(fromStep));
+			}
+		}
+		return experimentState;
+	}
+
+	/**
+	 * The values pushed by the simulators for a recorded variable, kept as primitives until they are requested
+	 */
+	private static class PartialResult
+	{
+		private Pointer pointer;
+
+		private double[] values = new double[16];
+
+		private int size = 0;
+
+		PartialResult(Pointer pointer)
+		{
+			this.pointer = pointer;
+		}
+
+		void add(double[] steps)
+		{
+			if(size + steps.length > values.length)
+			{
+				values = Arrays.copyOf(values, Math.max(2 * values.length, size + steps.length));
+			}
+			System.arraycopy(steps, 0, values, size, steps.length);
+			size += steps.length;
+		}
+
+		/**
+		 * @param fromStep
+		 * @return a variable value with a copy of the pointer and of the values from fromStep on
+		 */
+		VariableValue toVariableValue(int fromStep)
+		{
+			VariableValue variableValue = GeppettoFactory.eINSTANCE.createVariableValue();
+			variableValue.setPointer(EcoreUtil.copy(pointer));
+			TimeSeries timeSeries = ValuesFactory.eINSTANCE.createTimeSeries();
+			EList<Double> timeSeriesValues = timeSeries.getValue();
+			for(int i = Math.max(fromStep, 0); i < size; i++)
+			{
+				timeSeriesValues.add(values[i]);
+			}
+			variableValue.setValue(timeSeries);
+			return variableValue;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.geppetto.core.simulation.ISimulatorCallbackListener#endOfSteps(java.lang.String)
+	 */
+	@Override
+	public void endOfSteps(IAspectConfiguration aspectConfiguration, Map<File, ResultsFormat> results) throws GeppettoExecutionException
+	{
+		final String instancePath = aspectConfiguration.getInstance();
+		final SimulatorRuntime simulatorRuntime = simulatorRuntimes.get(instancePath);
+
+		// the simulator thread is released straight away, the simulator stays STEPPING until its results are uploaded
+		resultsPipeline.process(experiment, instancePath, results, new ResultsUploadPipeline.ResultsListener()
+		{
+			@Override
+			public void resultsUploaded(List<ISimulationResult> simulationResults)
+			{
+				synchronized(experiment)
+				{
+					for(ISimulationResult simulationResult : simulationResults)
+					{
+						experiment.addSimulationResult(simulationResult);
+					}
+				}
+				// the results are persisted together with the experiment when all the simulators are done
+				simulatorRuntime.setStatus(SimulatorRuntimeStatus.DONE);
+				notifyRunStateChanged();
+			}
+
+			@Override
+			public void resultsFailed(Exception e)
+			{
+				externalProcessFailed("Error uploading the results of " + instancePath + ": ", e);
+			}
+		});
+	}
+
+	/**
+	 * Called by a {@link SimulatorRunTask} when its simulator throws, the experiment fails and the run loop is woken up so that it stops stepping
+	 *
+	 * @param simulator
+	 * @param e
+	 */
+	void simulatorFailed(ISimulator simulator, Exception e)
+	{
+		logger.error("Simulator " + simulator.getName() + " failed", e);
+		externalProcessFailed("Error running simulator " + simulator.getName() + ": ", e);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.geppetto.core.simulation.ISimulatorCallbackListener#externalProcessFailed(java.lang.String, java.lang.Exception)
+	 */
+	@Override
+	public void externalProcessFailed(String message, Exception e)
+	{
+		String errorMessage = "Experiment with name: " + experiment.getName() + " and id: " + experiment.getId() + " has failed." + '\n';
+
+		experiment.setStatus(ExperimentStatus.ERROR);
+		this.listener.experimentError(errorMessage, message + e.getMessage(), e, experiment);
+		DataManagerHelper.getDataManager().saveEntity(experiment);
+		notifyRunStateChanged();
+	}
+}
@@ -1,17 +1,24 @@
 
 package org.geppetto.simulation.manager;
 
+import java.io.IOException;
 import java.net.MalformedURLException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -25,7 +32,13 @@ import org.geppetto.core.data.model.IGeppettoProject;
 import org.geppetto.core.data.model.IUser;
 import org.geppetto.core.manager.Scope;
 import org.geppetto.core.simulation.IGeppettoManagerCallbackListener;
+import org.geppetto.model.ExperimentState;
+import org.geppetto.simulation.AppConfig;
 import org.geppetto.simulation.IExperimentListener;
+import org.geppetto.simulation.scheduling.IExperimentSchedulingPolicy;
+import org.geppetto.simulation.scheduling.RoundRobinSchedulingPolicy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.context.support.SpringBeanAutowiringSupport;
 
 /**
  * The ExperimentRunManager is a singleton responsible for managing a queue per each user to run the experiments.
@@ -37,32 +50,88 @@ import org.geppetto.simulation.IExperimentListener;
 public class ExperimentRunManager implements IExperimentListener
 {
 
+	private static Log logger = LogFactory.getLog(ExperimentRunManager.class);
+
+	@Autowired
+	private AppConfig appConfig;
+
 	private Map<IUser, BlockingQueue<IExperiment>> queue;
 
 	private GeppettoManager geppettoManager;
 
-	private volatile int reqId = 0;
+	private AtomicInteger reqId = new AtomicInteger(0);
+
+	private ExperimentRunDispatcher dispatcher;
+
+	// the experiment runs are executed by this pool, its size is the simulation capacity of this server
+	private ThreadPoolExecutor runExecutor;
+
+	// the runs in progress by experiment id, they can be asked for the results received so far
+	private Map<Long, ExperimentRun> runningExperiments = new ConcurrentHashMap<Long, ExperimentRun>();
+
+	// the pending experiments are journaled so that the queue can be recovered quickly after a restart, null when running without persistence
+	private volatile RunQueueJournal journal;
+
+	// the simulator steps of all the runs are executed here rather than on a new thread each
+	private ExecutorService simulatorExecutor;
+
+	// uploads the results of the simulators of all the runs
+	private ResultsUploadPipeline resultsPipeline;
+
+	private int simulationCapacity;
+
+	private AtomicInteger activeRuns = new AtomicInteger(0);
 
-	private Timer timer;
+	private volatile IExperimentSchedulingPolicy schedulingPolicy = new RoundRobinSchedulingPolicy();
 
 	private IGeppettoManagerCallbackListener geppettoManagerCallbackListener;
 
-	private Map<IGeppettoProject, Integer> experimentsCounter = new ConcurrentHashMap<>();
+	// number of experiments queued or running for each project, the project is closed when it gets back to zero
+	private ReferenceCounter<IGeppettoProject> experimentsCounter = new ReferenceCounter<IGeppettoProject>();
 
-	private Set<IGeppettoProject> projectsRunning = new HashSet<IGeppettoProject>();
+	// number of experiments running for each project
+	private ReferenceCounter<IGeppettoProject> projectsRunning = new ReferenceCounter<IGeppettoProject>();
 
-	private static ExperimentRunManager instance = null;
+	private int projectParallelism = AppConfig.DEFAULT_PROJECT_PARALLELISM;
+
+	private static volatile ExperimentRunManager instance = null;
+
+	// the manager being started, only visible to the thread starting it
+	private static ExperimentRunManager starting = null;
 
 	/**
 	 * @return
 	 */
 	public static ExperimentRunManager getInstance()
 	{
-		if(instance == null)
+		ExperimentRunManager manager = instance;
+		if(manager == null)
 		{
-			instance = new ExperimentRunManager();
+			synchronized(ExperimentRunManager.class)
+			{
+				manager = instance;
+				if(manager == null)
+				{
+					if(starting != null)
+					{
+						// called again while starting, e.g. while loading the projects of the recovered experiments, the other threads wait for the start to finish
+						return starting;
+					}
+					manager = new ExperimentRunManager();
+					starting = manager;
+					try
+					{
+						manager.start();
+					}
+					finally
+					{
+						starting = null;
+					}
+					instance = manager;
+				}
+			}
 		}
-		return instance;
+		return manager;
 	}
 
 	/**
@@ -70,24 +139,119 @@ public class ExperimentRunManager implements IExperimentListener
 	 */
 	private ExperimentRunManager()
 	{
-		if(instance == null)
+		SpringBeanAutowiringSupport.processInjectionBasedOnCurrentContext(this);
+		queue = new ConcurrentHashMap<>();
+		simulationCapacity = AppConfig.DEFAULT_SIMULATION_CAPACITY;
+		if(appConfig != null && appConfig.getSimulationCapacity() > 0)
 		{
-			instance = this;
-			queue = new ConcurrentHashMap<>();
-			geppettoManager = new GeppettoManager(Scope.RUN);
-			try
+			simulationCapacity = appConfig.getSimulationCapacity();
+		}
+		if(appConfig != null && appConfig.getProjectParallelism() > 1)
+		{
+			projectParallelism = appConfig.getProjectParallelism();
+		}
+		runExecutor = new ThreadPoolExecutor(simulationCapacity, simulationCapacity, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+		{
+			private AtomicInteger threadCount = new AtomicInteger(0);
+
+			@Override
+			public Thread newThread(Runnable r)
 			{
+				Thread thread = new Thread(r, "ExperimentRun-" + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		// no threads are kept alive while no experiment is running
+		runExecutor.allowCoreThreadTimeOut(true);
+		simulatorExecutor = createSimulatorExecutor();
+		int uploadParallelism = AppConfig.DEFAULT_RESULTS_UPLOAD_PARALLELISM;
+		if(appConfig != null && appConfig.getResultsUploadParallelism() > 0)
+		{
+			uploadParallelism = appConfig.getResultsUploadParallelism();
+		}
+		int compressionLevel = AppConfig.DEFAULT_RESULTS_COMPRESSION_LEVEL;
+		if(appConfig != null)
+		{
+			compressionLevel = appConfig.getResultsCompressionLevel();
+		}
+		resultsPipeline = new ResultsUploadPipeline(uploadParallelism, compressionLevel);
+		geppettoManager = new GeppettoManager(Scope.RUN);
+	}
+
+	/**
+	 * Recovers the pending experiments and starts dispatching them, the code it reaches can already get this manager through {@link #getInstance()}
+	 */
+	private void start()
+	{
+		try
+		{
+			IGeppettoDataManager dataManager = DataManagerHelper.getDataManager();
+			if(dataManager.isDefault())
+			{
+				// nothing is persisted, there is nothing to recover
 				loadExperiments();
-				timer = new Timer("ExperimentRunChecker");
-				timer.schedule(new ExperimentRunChecker(), 0, 1000);
 			}
-			catch(GeppettoInitializationException | GeppettoExecutionException | MalformedURLException e)
+			else
 			{
-				throw new RuntimeException(e);
+				RunQueueJournal runQueueJournal = new RunQueueJournal(getJournalPath());
+				if(runQueueJournal.exists())
+				{
+					replayJournal(runQueueJournal);
+				}
+				else
+				{
+					// first start with a journal, the pending experiments have to be found in the database
+					loadExperiments();
+				}
+				// from now on every change to the queue is journaled
+				runQueueJournal.compact(queue);
+				journal = runQueueJournal;
 			}
+			dispatcher = new ExperimentRunDispatcher(this);
+			dispatcher.start();
+			// experiments recovered from the database are waiting to be run
+			dispatcher.signal();
+		}
+		catch(GeppettoInitializationException | GeppettoExecutionException | IOException e)
+		{
+			throw new RuntimeException(e);
 		}
 	}
 
+	/**
+	 * Simulators block while they step so on runtimes supporting virtual threads each step gets one, otherwise the steps are executed by a cached pool whose threads are reused across
+	 * steps and runs.
+	 * 
+	 * @return the executor for the simulator steps
+	 */
+	private static ExecutorService createSimulatorExecutor()
+	{
+		try
+		{
+			// looked up reflectively since virtual threads are not available on every runtime we support
+			ExecutorService executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			logger.info("Simulator steps are executed on virtual threads");
+			return executor;
+		}
+		catch(ReflectiveOperationException | RuntimeException e)
+		{
+			logger.info("Virtual threads not available, simulator steps are executed on a thread pool");
+		}
+		return Executors.newCachedThreadPool(new ThreadFactory()
+		{
+			private AtomicInteger threadCount = new AtomicInteger(0);
+
+			@Override
+			public Thread newThread(Runnable r)
+			{
+				Thread thread = new Thread(r, "SimulatorRun-" + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
 	/**
 	 * @param user
 	 * @param experiment
@@ -109,8 +273,13 @@ public class ExperimentRunManager implements IExperimentListener
 		boolean experimentCanRun = experiment.getStatus().equals(ExperimentStatus.QUEUED);
 		if(experimentCanRun)
 		{
+			if(activeRuns.get() >= simulationCapacity)
+			{
+				// the server is running as many experiments as it can, this one stays queued
+				return false;
+			}
 			IGeppettoProject project = experiment.getParentProject();
-			if(projectsRunning.contains(project))
+			if(projectsRunning.get(project) >= projectParallelism)
 			{
 				return false;
 			}
@@ -119,11 +288,25 @@ public class ExperimentRunManager implements IExperimentListener
 	}
 
 	/**
+	 * Called when an experiment leaves the ExperimentRunManager, if it was the last one for its project the project is closed
+	 * 
 	 * @param experiment
+	 * @throws GeppettoExecutionException
 	 */
-	private void decreaseExperimentCounter(IExperiment experiment)
+	private void decreaseExperimentCounter(IExperiment experiment) throws GeppettoExecutionException
 	{
-		experimentsCounter.put(experiment.getParentProject(), experimentsCounter.get(experiment.getParentProject()) - 1);
+		experimentsCounter.decrement(experiment.getParentProject(), new ReferenceCounter.ReleaseAction<IGeppettoProject>()
+		{
+			@Override
+			public void release(IGeppettoProject project) throws GeppettoExecutionException
+			{
+				// see experimentRunDone for why we don't close projects with the default data manager
+				if(!DataManagerHelper.getDataManager().isDefault() && geppettoManager.isProjectOpen(project))
+				{
+					geppettoManager.closeProject("ERM" + getReqId(), project);
+				}
+			}
+		});
 	}
 
 	/**
@@ -131,12 +314,7 @@ public class ExperimentRunManager implements IExperimentListener
 	 */
 	private void increaseExperimentCounter(IExperiment experimentAboutToRun)
 	{
-		IGeppettoProject project = experimentAboutToRun.getParentProject();
-		if(!experimentsCounter.containsKey(project))
-		{
-			experimentsCounter.put(project, 0);
-		}
-		experimentsCounter.put(project, experimentsCounter.get(project) + 1);
+		experimentsCounter.increment(experimentAboutToRun.getParentProject());
 	}
 
 	/*
@@ -146,32 +324,84 @@ public class ExperimentRunManager implements IExperimentListener
 	 */
 	void runExperiment(IExperiment experiment) throws GeppettoExecutionException
 	{
+		IGeppettoProject project = experiment.getParentProject();
+		projectsRunning.increment(project);
+		// released here unless the run was started, the run releases it when it's done
+		RuntimeProject snapshot = null;
 		try
 		{
-			IGeppettoProject project = experiment.getParentProject();
-			projectsRunning.add(project);
 			if(!geppettoManager.isProjectOpen(project))
 			{
 				geppettoManager.loadProject(String.valueOf(this.getReqId()), project);
 			}
 			RuntimeProject runtimeProject = geppettoManager.getRuntimeProject(project);
+			if(projectParallelism > 1)
+			{
+				// experiments of the same project can run at the same time, each one works on its own copy
+				snapshot = runtimeProject.snapshot();
+				runtimeProject = snapshot;
+			}
 			runtimeProject.openExperiment(String.valueOf(this.getReqId()), experiment);
 
-			ExperimentRunThread experimentRun = new ExperimentRunThread(experiment, runtimeProject, this);
-			experimentRun.start();
+			ExperimentRun experimentRun = new ExperimentRun(experiment, runtimeProject, this, simulatorExecutor, resultsPipeline);
 			experiment.setStatus(ExperimentStatus.RUNNING);
 			experiment.updateStartDate();
 			DataManagerHelper.getDataManager().saveEntity(experiment);
+			activeRuns.incrementAndGet();
+			runningExperiments.put(experiment.getId(), experimentRun);
+			// journaled before the run is submitted, the run could otherwise be journaled as done before it's journaled as started
+			RunQueueJournal runQueueJournal = journal;
+			if(runQueueJournal != null)
+			{
+				try
+				{
+					runQueueJournal.started(experiment);
+				}
+				catch(IOException e)
+				{
+					// at worst the experiment is queued again after a restart instead of being run first
+					logger.error("Could not journal the start of experiment " + experiment.getId(), e);
+				}
+			}
+			try
+			{
+				runExecutor.execute(experimentRun);
+			}
+			catch(RuntimeException e)
+			{
+				runningExperiments.remove(experiment.getId());
+				activeRuns.decrementAndGet();
+				throw e;
+			}
+			snapshot = null;
 
 		}
 		catch(Exception e)
 		{
+			// the experiment didn't start, it doesn't hold the project anymore
+			projectsRunning.decrement(project, null);
 			simulationError(experiment);
 			experiment.updateEndDate();
 			String errorMessage = "Error running experiment with name: " + experiment.getName() + " and id: " + experiment.getId();
 			this.experimentError(errorMessage, e.getMessage(), e, experiment);
+			decreaseExperimentCounter(experiment);
+			journalDone(experiment);
 			throw new GeppettoExecutionException(e);
 		}
+		finally
+		{
+			if(snapshot != null)
+			{
+				try
+				{
+					snapshot.release();
+				}
+				catch(GeppettoExecutionException e)
+				{
+					logger.error("Could not release the copy of project " + project.getId(), e);
+				}
+			}
+		}
 	}
 
 	/**
@@ -184,6 +414,88 @@ public class ExperimentRunManager implements IExperimentListener
 	}
 
 	/**
+	 * @return where the run queue journal is kept
+	 */
+	private Path getJournalPath()
+	{
+		if(appConfig != null && appConfig.getRunQueueJournal() != null && !appConfig.getRunQueueJournal().isEmpty())
+		{
+			return Paths.get(appConfig.getRunQueueJournal());
+		}
+		// not in the temporary directory, it could be cleaned while the server is running
+		return Paths.get(System.getProperty("user.home"), ".geppetto", "runQueue.journal");
+	}
+
+	/**
+	 * Queues again the experiments which were pending when the server stopped, only the users and projects which have pending experiments are loaded
+	 * 
+	 * @param runQueueJournal
+	 * @throws IOException
+	 */
+	private void replayJournal(RunQueueJournal runQueueJournal) throws IOException
+	{
+		IGeppettoDataManager dataManager = DataManagerHelper.getDataManager();
+		List<RunQueueJournal.Entry> entries = runQueueJournal.replay();
+		Map<String, IUser> users = new HashMap<String, IUser>();
+		// the experiments which were running are queued first, as the full scan does
+		for(boolean running : new boolean[] { true, false })
+		{
+			for(RunQueueJournal.Entry entry : entries)
+			{
+				if(entry.isRunning() != running)
+				{
+					continue;
+				}
+				IUser user = users.get(entry.getLogin());
+				if(user == null)
+				{
+					user = dataManager.getUserByLogin(entry.getLogin());
+					if(user == null)
+					{
+						continue;
+					}
+					users.put(entry.getLogin(), user);
+				}
+				IExperiment experiment = findExperiment(user, entry.getProjectId(), entry.getExperimentId());
+				// the journal could be ahead of the database if the server stopped in between, the database wins
+				if(experiment != null && (experiment.getStatus().equals(ExperimentStatus.RUNNING) || experiment.getStatus().equals(ExperimentStatus.QUEUED)))
+				{
+					addExperimentToQueue(user, experiment, experiment.getStatus());
+					dataManager.saveEntity(experiment);
+				}
+			}
+		}
+		logger.info("Recovered " + getQueuedExperimentsCount() + " experiments from the run queue journal");
+	}
+
+	/**
+	 * @param user
+	 * @param projectId
+	 * @param experimentId
+	 * @return the experiment or null if the user doesn't have it anymore
+	 */
+	private IExperiment findExperiment(IUser user, long projectId, long experimentId)
+	{
+		for(IGeppettoProject project : user.getGeppettoProjects())
+		{
+			if(project.getId() == projectId)
+			{
+				for(IExperiment experiment : project.getExperiments())
+				{
+					if(experiment.getId() == experimentId)
+					{
+						experiment.setParentProject(project);
+						return experiment;
+					}
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Finds the pending experiments going through the whole database, this is only needed when there is no run queue journal
+	 * 
 	 * @throws GeppettoInitializationException
 	 * @throws MalformedURLException
 	 * @throws GeppettoExecutionException
@@ -224,18 +536,78 @@ public class ExperimentRunManager implements IExperimentListener
 	 */
 	private synchronized void addExperimentToQueue(IUser user, IExperiment experiment, ExperimentStatus status)
 	{
-		increaseExperimentCounter(experiment);
 		BlockingQueue<IExperiment> userExperiments = queue.get(user);
 		if(userExperiments == null)
 		{
-			userExperiments = new ArrayBlockingQueue<IExperiment>(100);
+			// the queues are unbounded, queued experiments are also persisted with their QUEUED status
+			userExperiments = new LinkedBlockingQueue<IExperiment>();
 			queue.put(user, userExperiments);
 		}
 		if(experiment.getStatus() == status)
 		{
+			// only the experiments which are actually queued hold their project
+			increaseExperimentCounter(experiment);
 			experiment.setStatus(ExperimentStatus.QUEUED);
 			userExperiments.add(experiment);
+			if(journal != null)
+			{
+				try
+				{
+					journal.queued(user, experiment);
+				}
+				catch(IOException e)
+				{
+					// the journal would be replayed without this experiment, without a journal the next start finds the pending experiments in the database
+					logger.error("Could not journal queued experiment " + experiment.getId() + ", the run queue journal is discarded", e);
+					discardJournal();
+				}
+			}
+			signalDispatcher();
+		}
+	}
+
+	/**
+	 * Stops journaling and deletes the journal, it can't be trusted anymore once an experiment could not be journaled
+	 */
+	private synchronized void discardJournal()
+	{
+		RunQueueJournal runQueueJournal = journal;
+		journal = null;
+		try
+		{
+			runQueueJournal.delete();
 		}
+		catch(IOException e)
+		{
+			logger.fatal("Could not delete the run queue journal, the experiments queued from now on are lost if the server is restarted", e);
+		}
+	}
+
+	/**
+	 * Wakes up the dispatcher so that it checks whether any of the queued experiments can be started. The dispatcher is idle until this is called.
+	 */
+	private void signalDispatcher()
+	{
+		if(dispatcher != null)
+		{
+			dispatcher.signal();
+		}
+	}
+
+	/**
+	 * Stops starting new experiments, already running experiments are not affected. Experiments queued in the meantime remain QUEUED until {@link #resumeDispatching()} is called.
+	 */
+	public void pauseDispatching()
+	{
+		dispatcher.setPaused(true);
+	}
+
+	/**
+	 * Resumes starting queued experiments after {@link #pauseDispatching()}
+	 */
+	public void resumeDispatching()
+	{
+		dispatcher.setPaused(false);
 	}
 
 	/*
@@ -244,7 +616,7 @@ public class ExperimentRunManager implements IExperimentListener
 	 * @see org.geppetto.simulation.IExperimentListener#experimentRunDone(org.geppetto.simulation.ExperimentRun, org.geppetto.core.data.model.IExperiment)
 	 */
 	@Override
-	public void experimentRunDone(ExperimentRunThread experimentRun, IExperiment experiment, RuntimeProject project) throws GeppettoExecutionException
+	public void experimentRunDone(ExperimentRun experimentRun, IExperiment experiment, RuntimeProject project) throws GeppettoExecutionException
 	{
 		// if we are using the default data manager it means there is no persistence bundle
 		// if we are running an experiment in this scenarios it is because of a test rather
@@ -254,22 +626,82 @@ public class ExperimentRunManager implements IExperimentListener
 		// we can use them to check that the simulation was properly executed.
 		// This is not ideal or particularly elegant but harmless at the same time until we
 		// can think of a better way.
+		runningExperiments.remove(experiment.getId());
 		experimentRun.release();
+		activeRuns.decrementAndGet();
+		IGeppettoProject geppettoProject = project.getGeppettoProject();
+		if(!geppettoManager.isProjectOpen(geppettoProject) || project != geppettoManager.getRuntimeProject(geppettoProject))
+		{
+			// this was a copy made for this run only
+			project.release();
+		}
+		projectsRunning.decrement(experiment.getParentProject(), null);
 		decreaseExperimentCounter(experiment);
-		projectsRunning.remove(experiment.getParentProject());
-		if(!DataManagerHelper.getDataManager().isDefault() && experimentsCounter.get(experiment.getParentProject()) == 0)
+		journalDone(experiment);
+		// the project is not running anymore, other experiments queued for it might now be able to start
+		signalDispatcher();
+	}
+
+	/**
+	 * Records in the journal that the experiment left the ExperimentRunManager, a failure only means it could be queued again after a restart
+	 * 
+	 * @param experiment
+	 */
+	private void journalDone(IExperiment experiment)
+	{
+		RunQueueJournal runQueueJournal = journal;
+		if(runQueueJournal != null)
 		{
-			experimentsCounter.remove(experiment.getParentProject());
-			geppettoManager.closeProject("ERM" + getReqId(), project.getGeppettoProject());
+			try
+			{
+				runQueueJournal.done(experiment);
+			}
+			catch(IOException e)
+			{
+				logger.error("Could not journal the end of experiment " + experiment.getId(), e);
+			}
 		}
 	}
 
+	/**
+	 * @param experiment
+	 * @param variables
+	 *            the instance paths of the variables to return, all of them if null
+	 * @return the results the simulators of a running experiment have produced so far
+	 * @throws GeppettoExecutionException
+	 *             if the experiment is not running
+	 */
+	public ExperimentState getPartialExperimentState(IExperiment experiment, List<String> variables) throws GeppettoExecutionException
+	{
+		return getPartialExperimentState(experiment, variables, 0);
+	}
+
+	/**
+	 * @param experiment
+	 * @param variables
+	 *            the instance paths of the variables to return, all of them if null
+	 * @param fromStep
+	 *            how many values of each variable the client already has, only the following ones are returned
+	 * @return the results the simulators of a running experiment have produced since fromStep
+	 * @throws GeppettoExecutionException
+	 *             if the experiment is not running
+	 */
+	public ExperimentState getPartialExperimentState(IExperiment experiment, List<String> variables, int fromStep) throws GeppettoExecutionException
+	{
+		ExperimentRun experimentRun = runningExperiments.get(experiment.getId());
+		if(experimentRun == null)
+		{
+			throw new GeppettoExecutionException("The experiment " + experiment.getId() + " is not running");
+		}
+		return experimentRun.getPartialExperimentState(variables, fromStep);
+	}
+
 	/**
 	 * @return
 	 */
-	private synchronized int getReqId()
+	private int getReqId()
 	{
-		return ++reqId;
+		return reqId.incrementAndGet();
 	}
 
 	public Map<IUser, BlockingQueue<IExperiment>> getQueuedExperiments()
@@ -277,6 +709,61 @@ public class ExperimentRunManager implements IExperimentListener
 		return this.queue;
 	}
 
+	/**
+	 * @return the number of experiments waiting to be run across all the users
+	 */
+	public int getQueuedExperimentsCount()
+	{
+		int count = 0;
+		for(BlockingQueue<IExperiment> userExperiments : queue.values())
+		{
+			count += userExperiments.size();
+		}
+		return count;
+	}
+
+	/**
+	 * @return true if another experiment can be started without exceeding the simulation capacity
+	 */
+	boolean hasCapacity()
+	{
+		return activeRuns.get() < simulationCapacity;
+	}
+
+	/**
+	 * @return the policy deciding the order in which the users' queues are served
+	 */
+	public IExperimentSchedulingPolicy getSchedulingPolicy()
+	{
+		return schedulingPolicy;
+	}
+
+	/**
+	 * @param schedulingPolicy
+	 *            the policy deciding the order in which the users' queues are served, round robin by default
+	 */
+	public void setSchedulingPolicy(IExperimentSchedulingPolicy schedulingPolicy)
+	{
+		this.schedulingPolicy = schedulingPolicy;
+		signalDispatcher();
+	}
+
+	/**
+	 * @return the number of experiments currently running
+	 */
+	public int getActiveRunsCount()
+	{
+		return activeRuns.get();
+	}
+
+	/**
+	 * @return the maximum number of experiments this server runs at the same time
+	 */
+	public int getSimulationCapacity()
+	{
+		return simulationCapacity;
+	}
+
 	/**
 	 * @param user
 	 * @param experiment
@@ -287,9 +774,11 @@ public class ExperimentRunManager implements IExperimentListener
 		BlockingQueue<IExperiment> queuedExperiments = getQueuedExperiments().get(user);
 		if(queuedExperiments != null)
 		{
-			if(queuedExperiments.contains(experiment))
+			if(queuedExperiments.remove(experiment))
 			{
-				getQueuedExperiments().get(user).remove(experiment);
+				// the experiment won't run, it doesn't hold the project anymore
+				decreaseExperimentCounter(experiment);
+				journalDone(experiment);
 			}
 			else
 			{
@@ -316,36 +805,155 @@ public class ExperimentRunManager implements IExperimentListener
 
 }
 
-class ExperimentRunChecker extends TimerTask
+/**
+ * The ExperimentRunDispatcher starts the queued experiments which are eligible to run. It sleeps until it is signalled by the ExperimentRunManager, i.e. when an experiment is queued or when a
+ * running experiment is done and its project is released, therefore it doesn't cost anything while there is nothing to do.
+ */
+class ExperimentRunDispatcher extends Thread
 {
-	private static Log logger = LogFactory.getLog(ExperimentRunChecker.class);
-	private Map<IUser, BlockingQueue<IExperiment>> queuedExperiments = ExperimentRunManager.getInstance().getQueuedExperiments();
+	private static Log logger = LogFactory.getLog(ExperimentRunDispatcher.class);
 
-	public synchronized void run()
+	private ExperimentRunManager experimentRunManager;
+
+	// true if something changed since the last time the queues were checked
+	private boolean signalled = false;
+
+	private boolean paused = false;
+
+	/**
+	 * @param experimentRunManager
+	 */
+	public ExperimentRunDispatcher(ExperimentRunManager experimentRunManager)
 	{
-		try
+		super("ExperimentRunDispatcher");
+		this.experimentRunManager = experimentRunManager;
+		setDaemon(true);
+	}
+
+	/**
+	 * Requests a new check of the queues, signals received while a check is in progress are not lost and cause a new check
+	 */
+	public synchronized void signal()
+	{
+		signalled = true;
+		notifyAll();
+	}
+
+	/**
+	 * @param paused
+	 */
+	public synchronized void setPaused(boolean paused)
+	{
+		this.paused = paused;
+		if(!paused)
 		{
-			for(IUser user : queuedExperiments.keySet())
+			signalled = true;
+		}
+		notifyAll();
+	}
+
+	/**
+	 * @throws InterruptedException
+	 */
+	private synchronized void awaitSignal() throws InterruptedException
+	{
+		while(!signalled || paused)
+		{
+			wait();
+		}
+		signalled = false;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Thread#run()
+	 */
+	@Override
+	public void run()
+	{
+		while(!isInterrupted())
+		{
+			try
+			{
+				awaitSignal();
+			}
+			catch(InterruptedException e)
 			{
-				List<IExperiment> ran = new ArrayList<IExperiment>();
-				for(IExperiment e : queuedExperiments.get(user))
+				logger.info("ExperimentRunDispatcher interrupted, no more experiments will be started");
+				return;
+			}
+			dispatch();
+		}
+	}
+
+	/**
+	 * Starts the queued experiments which can be run, one at the time in the order given by the scheduling policy, until either the capacity is exhausted or none of the queued experiments can be
+	 * started
+	 */
+	private void dispatch()
+	{
+		Map<IUser, BlockingQueue<IExperiment>> queuedExperiments = experimentRunManager.getQueuedExperiments();
+		boolean started = true;
+		while(started && experimentRunManager.hasCapacity())
+		{
+			started = false;
+			List<IUser> waitingUsers = new ArrayList<IUser>();
+			for(Map.Entry<IUser, BlockingQueue<IExperiment>> entry : queuedExperiments.entrySet())
+			{
+				if(!entry.getValue().isEmpty())
 				{
-					if(ExperimentRunManager.getInstance().checkExperiment(e))
-					{
-						logger.info("Experiment queued found " + e.getName());
-						ExperimentRunManager.getInstance().runExperiment(e);
-						ran.add(e);
-					}
+					waitingUsers.add(entry.getKey());
 				}
-				for(IExperiment ranExperiment : ran)
+			}
+			IExperimentSchedulingPolicy policy = experimentRunManager.getSchedulingPolicy();
+			for(IUser user : policy.orderUsers(waitingUsers))
+			{
+				IExperiment next = takeNextRunnable(queuedExperiments.get(user));
+				if(next != null)
 				{
-					queuedExperiments.get(user).remove(ranExperiment);
+					logger.info("Experiment queued found " + next.getName());
+					try
+					{
+						experimentRunManager.runExperiment(next);
+						policy.experimentStarted(user, next);
+					}
+					catch(GeppettoExecutionException e)
+					{
+						// the experiment is now in ERROR, we carry on with the others
+						logger.error(e);
+					}
+					// the order might have changed now that this user was served
+					started = true;
+					break;
 				}
 			}
 		}
-		catch(GeppettoExecutionException | GeppettoInitializationException e)
+	}
+
+	/**
+	 * @param userExperiments
+	 * @return the first experiment in the queue which can be run, removed from the queue, or null if there is none
+	 */
+	private IExperiment takeNextRunnable(BlockingQueue<IExperiment> userExperiments)
+	{
+		Iterator<IExperiment> iterator = userExperiments.iterator();
+		while(iterator.hasNext())
 		{
-			logger.error(e);
+			IExperiment e = iterator.next();
+			try
+			{
+				if(experimentRunManager.checkExperiment(e))
+				{
+					iterator.remove();
+					return e;
+				}
+			}
+			catch(GeppettoInitializationException ex)
+			{
+				logger.error(ex);
+			}
 		}
+		return null;
 	}
 }
@@ -0,0 +1,305 @@
+package org.geppetto.simulation.manager;
+
+import java.util.List;
+
+import org.eclipse.emf.common.util.EList;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.geppetto.model.ExperimentState;
+import org.geppetto.model.GeppettoFactory;
+import org.geppetto.model.VariableValue;
+import org.geppetto.model.values.TimeSeries;
+import org.geppetto.model.values.ValuesFactory;
+
+/**
+ * Restricts the recorded variables returned for an experiment to a time window and reduces them to at most a number of points, so that a client plotting a trace doesn't receive the
+ * whole recording. The values of each variable are visited once and reduced bucket by bucket, the time is reduced in the same way so that it stays aligned with the other variables.
+ */
+public class ExperimentStateQuery
+{
+
+	public enum Aggregation
+	{
+		// the first value of each bucket
+		NONE,
+		// the mean of each bucket
+		MEAN,
+		// the minimum and the maximum of each bucket, in the order they were recorded, two points per bucket
+		MIN_MAX
+	}
+
+	private static final String TIME = "time(StateVariable)";
+
+	private double startTime = Double.NEGATIVE_INFINITY;
+
+	private double endTime = Double.POSITIVE_INFINITY;
+
+	private int stride = 1;
+
+	private int maxPoints = 0;
+
+	private Aggregation aggregation = Aggregation.NONE;
+
+	/**
+	 * @return the first time included, inclusive
+	 */
+	public double getStartTime()
+	{
+		return startTime;
+	}
+
+	/**
+	 * @param startTime
+	 */
+	public void setStartTime(double startTime)
+	{
+		this.startTime = startTime;
+	}
+
+	/**
+	 * @return the last time included, inclusive
+	 */
+	public double getEndTime()
+	{
+		return endTime;
+	}
+
+	/**
+	 * @param endTime
+	 */
+	public void setEndTime(double endTime)
+	{
+		this.endTime = endTime;
+	}
+
+	/**
+	 * @return how many recorded steps make at least one bucket
+	 */
+	public int getStride()
+	{
+		return stride;
+	}
+
+	/**
+	 * @param stride
+	 */
+	public void setStride(int stride)
+	{
+		if(stride < 1)
+		{
+			throw new IllegalArgumentException("The stride must be at least 1");
+		}
+		this.stride = stride;
+	}
+
+	/**
+	 * @return the most points returned for each variable, 0 if there is no limit
+	 */
+	public int getMaxPoints()
+	{
+		return maxPoints;
+	}
+
+	/**
+	 * @param maxPoints
+	 */
+	public void setMaxPoints(int maxPoints)
+	{
+		if(maxPoints < 0)
+		{
+			throw new IllegalArgumentException("The number of points cannot be negative");
+		}
+		this.maxPoints = maxPoints;
+	}
+
+	/**
+	 * @return
+	 */
+	public Aggregation getAggregation()
+	{
+		return aggregation;
+	}
+
+	/**
+	 * @param aggregation
+	 */
+	public void setAggregation(Aggregation aggregation)
+	{
+		this.aggregation = aggregation;
+	}
+
+	/**
+	 * @param experimentState
+	 *            the state the reduced variables are added to, its recorded variables are left untouched
+	 * @param variableValues
+	 *            the variables to reduce, they are not modified
+	 * @return experimentState
+	 */
+	public ExperimentState apply(ExperimentState experimentState, List<VariableValue> variableValues)
+	{
+		VariableValue time = null;
+		for(VariableValue variableValue : variableValues)
+		{
+			if(variableValue.getPointer() != null && TIME.equals(variableValue.getPointer().getInstancePath()) && variableValue.getValue() instanceof TimeSeries)
+			{
+				time = variableValue;
+				break;
+			}
+		}
+		for(VariableValue variableValue : variableValues)
+		{
+			experimentState.getRecordedVariables().add(apply(variableValue, time));
+		}
+		return experimentState;
+	}
+
+	/**
+	 * @param variableValue
+	 *            the variable to reduce, it is not modified
+	 * @param time
+	 *            the recorded time, null if it's not known
+	 * @return the reduced variable, a view sharing the values of variableValue if there is nothing to reduce
+	 */
+	public VariableValue apply(VariableValue variableValue, VariableValue time)
+	{
+		if(!(variableValue.getValue() instanceof TimeSeries))
+		{
+			return EcoreUtil.copy(variableValue);
+		}
+		EList<Double> timeValues = time != null && time.getValue() instanceof TimeSeries ? ((TimeSeries) time.getValue()).getValue() : null;
+
+		// without the time the window can't be found and the whole recording is reduced
+		int from = timeValues == null ? 0 : firstIndexNotBefore(timeValues, startTime);
+		int to = timeValues == null ? Integer.MAX_VALUE : firstIndexAfter(timeValues, endTime);
+
+		TimeSeries timeSeries = (TimeSeries) variableValue.getValue();
+		int size = timeSeries.getValue().size();
+		if(from == 0 && to >= size && aggregation != Aggregation.MIN_MAX && getBucketSize(size) == 1)
+		{
+			// nothing to reduce, the values are shared
+			return TimeSeriesView.createView(variableValue);
+		}
+		VariableValue reduced = GeppettoFactory.eINSTANCE.createVariableValue();
+		reduced.setPointer(EcoreUtil.copy(variableValue.getPointer()));
+		reduced.setValue(reduce(timeSeries, from, Math.min(to, size)));
+		return reduced;
+	}
+
+	/**
+	 * @param timeSeries
+	 * @param from
+	 *            inclusive
+	 * @param to
+	 *            exclusive
+	 * @return
+	 */
+	private TimeSeries reduce(TimeSeries timeSeries, int from, int to)
+	{
+		TimeSeries reduced = ValuesFactory.eINSTANCE.createTimeSeries();
+		if(timeSeries.getUnit() != null)
+		{
+			reduced.setUnit(EcoreUtil.copy(timeSeries.getUnit()));
+		}
+		EList<Double> values = timeSeries.getValue();
+		EList<Double> reducedValues = reduced.getValue();
+		int size = to - from;
+		if(size <= 0)
+		{
+			return reduced;
+		}
+		int bucket = getBucketSize(size);
+
+		for(int start = from; start < to; start += bucket)
+		{
+			int end = Math.min(start + bucket, to);
+			switch(aggregation)
+			{
+				case NONE:
+					reducedValues.add(values.get(start));
+					break;
+				case MEAN:
+					double sum = 0;
+					for(int i = start; i < end; i++)
+					{
+						sum += values.get(i);
+					}
+					reducedValues.add(sum / (end - start));
+					break;
+				case MIN_MAX:
+					int min = start;
+					int max = start;
+					for(int i = start + 1; i < end; i++)
+					{
+						double value = values.get(i);
+						if(value < values.get(min))
+						{
+							min = i;
+						}
+						else if(value > values.get(max))
+						{
+							max = i;
+						}
+					}
+					reducedValues.add(values.get(Math.min(min, max)));
+					reducedValues.add(values.get(Math.max(min, max)));
+					break;
+			}
+		}
+		return reduced;
+	}
+
+	/**
+	 * @param size
+	 *            the number of recorded steps in the window
+	 * @return how many steps are reduced to a single bucket
+	 */
+	private int getBucketSize(int size)
+	{
+		int bucket = stride;
+		if(maxPoints > 0)
+		{
+			// a min/max bucket is returned as two points
+			int buckets = aggregation == Aggregation.MIN_MAX ? Math.max(1, maxPoints / 2) : maxPoints;
+			bucket = Math.max(bucket, (size + buckets - 1) / buckets);
+		}
+		return bucket;
+	}
+
+	private static int firstIndexNotBefore(EList<Double> time, double t)
+	{
+		int low = 0;
+		int high = time.size();
+		while(low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if(time.get(mid) < t)
+			{
+				low = mid + 1;
+			}
+			else
+			{
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private static int firstIndexAfter(EList<Double> time, double t)
+	{
+		int low = 0;
+		int high = time.size();
+		while(low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if(time.get(mid) <= t)
+			{
+				low = mid + 1;
+			}
+			else
+			{
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+}
@@ -8,9 +8,10 @@ import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -31,13 +32,12 @@ import org.geppetto.core.data.model.UserPrivileges;
 import org.geppetto.core.datasources.GeppettoDataSourceException;
 import org.geppetto.core.manager.IGeppettoManager;
 import org.geppetto.core.manager.Scope;
-import org.geppetto.core.model.GeppettoModelReader;
-import org.geppetto.core.s3.S3Manager;
 import org.geppetto.core.services.DropboxUploadService;
 import org.geppetto.core.simulation.IGeppettoManagerCallbackListener;
 import org.geppetto.core.utilities.URLReader;
 import org.geppetto.core.utilities.Zipper;
 import org.geppetto.model.ExperimentState;
+import org.geppetto.model.GeppettoFactory;
 import org.geppetto.model.GeppettoModel;
 import org.geppetto.model.ModelFormat;
 import org.geppetto.model.datasources.QueryResults;
@@ -45,6 +45,9 @@ import org.geppetto.model.datasources.RunnableQuery;
 import org.geppetto.model.util.GeppettoModelException;
 import org.geppetto.model.util.GeppettoModelTraversal;
 import org.geppetto.model.util.GeppettoVisitingException;
+import org.geppetto.simulation.IExperimentStateConsumer;
+import org.geppetto.simulation.storage.ContentAddressedStore;
+import org.geppetto.simulation.utilities.ExperimentStateEncoder;
 import org.geppetto.simulation.utilities.GeppettoProjectZipper;
 import org.geppetto.simulation.visitor.GeppettoModelTypesVisitor;
 import org.geppetto.simulation.visitor.PersistModelVisitor;
@@ -67,7 +70,8 @@ public class GeppettoManager implements IGeppettoManager
 	private static Log logger = LogFactory.getLog(GeppettoManager.class);
 
 	// these are the runtime projects for a
-	private Map<IGeppettoProject, RuntimeProject> projects = new LinkedHashMap<>();
+	// the map is shared between the experiment runs and the requests so it has to be concurrent
+	private ConcurrentMap<IGeppettoProject, RuntimeProject> projects = new ConcurrentHashMap<>();
 
 	private DropboxUploadService dropboxService = new DropboxUploadService();
 
@@ -133,7 +137,13 @@ public class GeppettoManager implements IGeppettoManager
 		if(!projects.containsKey(project))
 		{
 			RuntimeProject runtimeProject = new RuntimeProject(project, this);
-			projects.put(project, runtimeProject);
+			if(projects.putIfAbsent(project, runtimeProject) != null)
+			{
+				// somebody else loaded the same project in the meantime
+				runtimeProject.release();
+				throw new GeppettoExecutionException("Cannot load two instances of the same project");
+			}
+			ImportTypesPrefetcher.getInstance().prefetch(runtimeProject);
 		}
 		else
 		{
@@ -188,7 +198,9 @@ public class GeppettoManager implements IGeppettoManager
 	{
 		if(projects.size() > 0)
 		{
-			if(!projects.containsKey(project) && projects.get(project) == null)
+			// removing first guarantees that only one caller releases the runtime project
+			RuntimeProject runtimeProject = projects.remove(project);
+			if(runtimeProject == null)
 			{
 				throw new GeppettoExecutionException("A project without a runtime project cannot be closed");
 			}
@@ -200,8 +212,10 @@ public class GeppettoManager implements IGeppettoManager
 			{
 				throw new GeppettoExecutionException(e);
 			}
-			projects.get(project).release();
-			projects.remove(project);
+			finally
+			{
+				runtimeProject.release();
+			}
 		}
 	}
 
@@ -218,6 +232,14 @@ public class GeppettoManager implements IGeppettoManager
 			{
 				loadProject(null, project);
 			}
+			catch(GeppettoExecutionException e)
+			{
+				// the project might have been loaded concurrently, in that case we just use it
+				if(!projects.containsKey(project))
+				{
+					throw e;
+				}
+			}
 			catch(MalformedURLException e)
 			{
 				throw new GeppettoExecutionException(e);
@@ -231,7 +253,12 @@ public class GeppettoManager implements IGeppettoManager
 				throw new GeppettoExecutionException(e);
 			}
 		}
-		return projects.get(project);
+		RuntimeProject runtimeProject = projects.get(project);
+		if(runtimeProject == null)
+		{
+			throw new GeppettoExecutionException("The project " + project.getId() + " was closed");
+		}
+		return runtimeProject;
 	}
 
 	/*
@@ -296,6 +323,22 @@ public class GeppettoManager implements IGeppettoManager
 	 */
 	@Override
 	public ExperimentState getExperimentState(String requestId, IExperiment experiment, List<String> variables) throws GeppettoExecutionException, GeppettoAccessException
+	{
+		return getExperimentState(requestId, experiment, variables, null);
+	}
+
+	/**
+	 * @param requestId
+	 * @param experiment
+	 * @param variables
+	 * @param query
+	 *            the time window and the reduction applied to each variable on the server, null to return the variables whole
+	 * @return
+	 * @throws GeppettoExecutionException
+	 * @throws GeppettoAccessException
+	 */
+	public ExperimentState getExperimentState(String requestId, IExperiment experiment, List<String> variables, ExperimentStateQuery query) throws GeppettoExecutionException,
+			GeppettoAccessException
 	{
 		if(!user.getUserGroup().getPrivileges().contains(UserPrivileges.READ_PROJECT))
 		{
@@ -305,12 +348,81 @@ public class GeppettoManager implements IGeppettoManager
 		if(experiment.getStatus().equals(ExperimentStatus.COMPLETED))
 		{
 			String urlBase = experiment.getParentProject().getBaseURL();
-			return getRuntimeProject(experiment.getParentProject()).getRuntimeExperiment(experiment).getExperimentState(variables, urlBase);
+			return getRuntimeProject(experiment.getParentProject()).getRuntimeExperiment(experiment).getExperimentState(variables, urlBase, query);
+
+		}
+		else if(experiment.getStatus().equals(ExperimentStatus.RUNNING))
+		{
+			// the results received so far from the simulators
+			ExperimentState partialState = ExperimentRunManager.getInstance().getPartialExperimentState(experiment, variables);
+			if(query != null)
+			{
+				ExperimentState reducedState = GeppettoFactory.eINSTANCE.createExperimentState();
+				reducedState.setExperimentId(partialState.getExperimentId());
+				reducedState.setProjectId(partialState.getProjectId());
+				return query.apply(reducedState, partialState.getRecordedVariables());
+			}
+			return partialState;
+		}
+		else
+		{
+			throw new GeppettoExecutionException("Cannot play an experiment whose status is not completed or running");
+		}
+	}
 
+	/**
+	 * Polls a running experiment for the values its simulators produced since the client last asked
+	 * 
+	 * @param requestId
+	 * @param experiment
+	 * @param variables
+	 *            the instance paths of the variables to return, all of them if null
+	 * @param fromStep
+	 *            how many values of each variable the client already has
+	 * @return
+	 * @throws GeppettoExecutionException
+	 * @throws GeppettoAccessException
+	 */
+	public ExperimentState getPartialExperimentState(String requestId, IExperiment experiment, List<String> variables, int fromStep) throws GeppettoExecutionException,
+			GeppettoAccessException
+	{
+		if(!user.getUserGroup().getPrivileges().contains(UserPrivileges.READ_PROJECT))
+		{
+			throw new GeppettoAccessException("Insufficient access rights to play experiment.");
+		}
+		return ExperimentRunManager.getInstance().getPartialExperimentState(experiment, variables, fromStep);
+	}
+
+	/**
+	 * Sends the state of the experiment to consumer in the binary encoding of {@link ExperimentStateEncoder}, chunk by chunk, instead of returning it
+	 * 
+	 * @param requestId
+	 * @param experiment
+	 * @param variables
+	 * @param query
+	 *            the time window and the reduction applied to each variable on the server, null to send the variables whole
+	 * @param consumer
+	 * @throws GeppettoExecutionException
+	 * @throws GeppettoAccessException
+	 */
+	public void streamExperimentState(String requestId, IExperiment experiment, List<String> variables, ExperimentStateQuery query, IExperimentStateConsumer consumer)
+			throws GeppettoExecutionException, GeppettoAccessException
+	{
+		if(!user.getUserGroup().getPrivileges().contains(UserPrivileges.READ_PROJECT))
+		{
+			throw new GeppettoAccessException("Insufficient access rights to play experiment.");
+		}
+
+		if(experiment.getStatus().equals(ExperimentStatus.COMPLETED))
+		{
+			// encoded variable by variable as they are read from the recording
+			String urlBase = experiment.getParentProject().getBaseURL();
+			getRuntimeProject(experiment.getParentProject()).getRuntimeExperiment(experiment).streamExperimentState(variables, urlBase, query, consumer);
 		}
 		else
 		{
-			throw new GeppettoExecutionException("Cannot play an experiment whose status is not completed");
+			// the partial results of a running experiment are already in memory
+			new ExperimentStateEncoder().encode(getExperimentState(requestId, experiment, variables, query), consumer);
 		}
 	}
 
@@ -392,10 +504,9 @@ public class GeppettoManager implements IGeppettoManager
 						throw new GeppettoExecutionException(e);
 					}
 					persistModelVisitor.processLocalGeppettoFile();
-					String fileName = URLReader.getFileName(url);
-					String newPath = "projects/" + Long.toString(project.getId()) + "/" + fileName;
-					S3Manager.getInstance().saveFileToS3(localGeppettoModelFile.toFile(), newPath);
-					project.getGeppettoModel().setURL(S3Manager.getInstance().getURL(newPath).toString());
+					// files whose content was already persisted, e.g. by the project this one was cloned from, are not uploaded again
+					ContentAddressedStore contentStore = ContentAddressedStore.getInstance();
+					project.getGeppettoModel().setURL(contentStore.store(localGeppettoModelFile.toFile()).toString());
 					// save Geppetto Scripts
 					for(IExperiment experiment : project.getExperiments())
 					{
@@ -403,9 +514,7 @@ public class GeppettoManager implements IGeppettoManager
 						{
 							URL scriptURL = URLReader.getURL(experiment.getScript(), project.getBaseURL());
 							Path localScript = Paths.get(URLReader.createLocalCopy(scope, project.getId(), scriptURL, true).toURI());
-							String newScriptPath = "projects/" + Long.toString(project.getId()) + "/experiment/" + experiment.getId() + "/script.js";
-							S3Manager.getInstance().saveFileToS3(localScript.toFile(), newScriptPath);
-							experiment.setScript(S3Manager.getInstance().getURL(newScriptPath).toString());
+							experiment.setScript(contentStore.store(localScript.toFile()).toString());
 						}
 
 						if(experiment.getSimulationResults() != null)
@@ -415,11 +524,8 @@ public class GeppettoManager implements IGeppettoManager
 								if(simResult.getResult() != null)
 								{
 									URL resultURL = URLReader.getURL(simResult.getResult().getUrl(), project.getBaseURL());
-									String resultFileName = URLReader.getFileName(resultURL);
 									Path localResult = Paths.get(URLReader.createLocalCopy(scope, project.getId(), resultURL, true).toURI());
-									String newResultPath = "projects/" + Long.toString(project.getId()) + "/experiment/" + experiment.getId() + "/" + resultFileName;
-									S3Manager.getInstance().saveFileToS3(localResult.toFile(), newResultPath);
-									simResult.getResult().setURL(S3Manager.getInstance().getURL(newResultPath).toString());
+									simResult.getResult().setURL(contentStore.store(localResult.toFile()).toString());
 								}
 							}
 						}
@@ -900,7 +1006,7 @@ public class GeppettoManager implements IGeppettoManager
 
 			URL url = URLReader.getURL(modelPath, project.getBaseURL());
 
-			GeppettoModel geppettoModel = GeppettoModelReader.readGeppettoModel(url);
+			GeppettoModel geppettoModel = GeppettoModelCache.getInstance().getGeppettoModel(url);
 			Path localGeppettoModelFile = Paths.get(URLReader.createLocalCopy(scope, project.getId(), url, false).toURI());
 
 			// Changes paths inside the .XMI
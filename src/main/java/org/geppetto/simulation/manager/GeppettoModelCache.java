@@ -0,0 +1,197 @@
+package org.geppetto.simulation.manager;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.emf.common.util.TreeIterator;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.geppetto.core.manager.SharedLibraryManager;
+import org.geppetto.core.model.GeppettoModelReader;
+import org.geppetto.model.GeppettoModel;
+import org.geppetto.simulation.AppConfig;
+import org.geppetto.simulation.utilities.URLValidator;
+
+/**
+ * Keeps the Geppetto models parsed from their XMI so that opening again a project whose model didn't change copies the parsed model instead of downloading and parsing it. The parsed
+ * models are templates which are never handed out, every caller receives its own copy which it is free to modify. A model is considered unchanged if its URL and its validator (the
+ * ETag or last modified date given by the server, the modification time and length of a local file) are the same, models whose URL gives no validator are not cached. The cache is
+ * bounded by the total number of model elements of the templates, the least recently used are evicted first.
+ */
+public class GeppettoModelCache
+{
+
+	private static final String COMMON_LIBRARY = "#commonLibrary";
+
+	private static GeppettoModelCache instance = new GeppettoModelCache();
+
+	private long capacity = AppConfig.DEFAULT_MODEL_CACHE_SIZE;
+
+	private long size = 0;
+
+	// least recently used first
+	private Map<String, Template> templates = new LinkedHashMap<String, Template>(16, 0.75f, true);
+
+	private AtomicLong hits = new AtomicLong(0);
+
+	private AtomicLong misses = new AtomicLong(0);
+
+	/**
+	 * @return
+	 */
+	public static GeppettoModelCache getInstance()
+	{
+		return instance;
+	}
+
+	/**
+	 * @param capacity
+	 *            how many model elements the cached models can have in total, 0 disables the cache
+	 */
+	public synchronized void setCapacity(long capacity)
+	{
+		this.capacity = capacity;
+		evict();
+	}
+
+	/**
+	 * @param url
+	 * @return a copy of the model at url, parsed only if the model at url changed since it was last read
+	 * @throws IOException
+	 */
+	public GeppettoModel getGeppettoModel(URL url) throws IOException
+	{
+		return getGeppettoModel(url, false);
+	}
+
+	/**
+	 * Same as {@link #getGeppettoModel(URL)} but the model also contains a copy of the shared common library. The library is added once to the cached model so that opening a project
+	 * copies the model and the library in a single pass instead of copying the library on its own every time.
+	 * 
+	 * @param url
+	 * @return
+	 * @throws IOException
+	 */
+	public GeppettoModel getGeppettoModelWithCommonLibrary(URL url) throws IOException
+	{
+		return getGeppettoModel(url, true);
+	}
+
+	private GeppettoModel getGeppettoModel(URL url, boolean commonLibrary) throws IOException
+	{
+		String validator = capacity > 0 ? URLValidator.getValidator(url) : null;
+		if(validator == null)
+		{
+			return read(url, commonLibrary);
+		}
+
+		// the models with and without the library are different templates
+		String key = commonLibrary ? url + COMMON_LIBRARY : url.toString();
+		Template template;
+		synchronized(this)
+		{
+			template = templates.get(key);
+		}
+		if(template != null && template.validator.equals(validator))
+		{
+			hits.incrementAndGet();
+			return template.copy();
+		}
+
+		misses.incrementAndGet();
+		GeppettoModel geppettoModel = read(url, commonLibrary);
+		template = new Template(validator, EcoreUtil.copy(geppettoModel));
+		synchronized(this)
+		{
+			Template replaced = templates.put(key, template);
+			if(replaced != null)
+			{
+				size -= replaced.size;
+			}
+			size += template.size;
+			evict();
+		}
+		return geppettoModel;
+	}
+
+	private static GeppettoModel read(URL url, boolean commonLibrary) throws IOException
+	{
+		GeppettoModel geppettoModel = GeppettoModelReader.readGeppettoModel(url);
+		if(commonLibrary)
+		{
+			// every geppetto model has its own copy of the library, a library can be contained by a single model
+			geppettoModel.getLibraries().add(EcoreUtil.copy(SharedLibraryManager.getSharedCommonLibrary()));
+		}
+		return geppettoModel;
+	}
+
+	/**
+	 * @return how many models were copied instead of being parsed
+	 */
+	public long getHits()
+	{
+		return hits.get();
+	}
+
+	/**
+	 * @return how many models had to be parsed
+	 */
+	public long getMisses()
+	{
+		return misses.get();
+	}
+
+	/**
+	 * @return the number of model elements of the cached models
+	 */
+	public synchronized long size()
+	{
+		return size;
+	}
+
+	private void evict()
+	{
+		Iterator<Template> leastRecentlyUsed = templates.values().iterator();
+		while(size > capacity && leastRecentlyUsed.hasNext())
+		{
+			size -= leastRecentlyUsed.next().size;
+			leastRecentlyUsed.remove();
+		}
+	}
+
+	/**
+	 * A parsed model and the validator of the content it was parsed from
+	 */
+	private static class Template
+	{
+		private String validator;
+
+		private GeppettoModel geppettoModel;
+
+		private long size;
+
+		Template(String validator, GeppettoModel geppettoModel)
+		{
+			this.validator = validator;
+			this.geppettoModel = geppettoModel;
+			for(TreeIterator<EObject> contents = geppettoModel.eAllContents(); contents.hasNext(); contents.next())
+			{
+				size++;
+			}
+		}
+
+		GeppettoModel copy()
+		{
+			// copying can resolve references of the template, one copy at the time
+			synchronized(this)
+			{
+				return EcoreUtil.copy(geppettoModel);
+			}
+		}
+	}
+
+}
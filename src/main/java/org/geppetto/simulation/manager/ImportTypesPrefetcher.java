@@ -0,0 +1,92 @@
+package org.geppetto.simulation.manager;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.geppetto.core.common.GeppettoExecutionException;
+import org.geppetto.simulation.AppConfig;
+
+/**
+ * Resolves in the background the import types which are not resolved automatically when a project is opened, starting from the ones of the variables at the root of the model. A
+ * type requested by a user while it's being prefetched waits for the prefetch to finish instead of importing it twice. Disabled by default since the types are added to the model
+ * while it might be being sent to the client.
+ */
+public class ImportTypesPrefetcher
+{
+
+	private static Log logger = LogFactory.getLog(ImportTypesPrefetcher.class);
+
+	private static ImportTypesPrefetcher instance = new ImportTypesPrefetcher();
+
+	private boolean enabled = AppConfig.DEFAULT_PREFETCH_IMPORT_TYPES;
+
+	// one project at the time, the prefetch shouldn't compete with the projects being opened
+	private ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory()
+	{
+		@Override
+		public Thread newThread(Runnable r)
+		{
+			Thread thread = new Thread(r, "ImportTypesPrefetcher");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/**
+	 * @return
+	 */
+	public static ImportTypesPrefetcher getInstance()
+	{
+		return instance;
+	}
+
+	/**
+	 * @param enabled
+	 */
+	public void setEnabled(boolean enabled)
+	{
+		this.enabled = enabled;
+	}
+
+	/**
+	 * @return
+	 */
+	public boolean isEnabled()
+	{
+		return enabled;
+	}
+
+	/**
+	 * @param runtimeProject
+	 *            a project which was just opened
+	 */
+	public void prefetch(final RuntimeProject runtimeProject)
+	{
+		if(!enabled)
+		{
+			return;
+		}
+		executor.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				long start = System.currentTimeMillis();
+				try
+				{
+					runtimeProject.resolveRootImportTypes();
+					logger.info("Prefetching the import types took " + (System.currentTimeMillis() - start) + "ms");
+				}
+				catch(GeppettoExecutionException | RuntimeException e)
+				{
+					// the types will be imported when they are requested, reporting the problem then
+					logger.warn("Could not prefetch the import types", e);
+				}
+			}
+		});
+	}
+
+}
@@ -0,0 +1,114 @@
+
+package org.geppetto.simulation.manager;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.geppetto.core.common.GeppettoExecutionException;
+
+/**
+ * Thread safe counters by key. Counters are striped, i.e. there is one lock per key, and a counter is discarded when it gets back to zero. An optional action can be executed when a counter
+ * reaches zero, no increment for the same key completes until the action is done so that e.g. a project cannot be reopened while it is being closed.
+ *
+ * @param <K>
+ */
+public class ReferenceCounter<K>
+{
+
+	/**
+	 * An action executed when the counter of a key gets back to zero
+	 *
+	 * @param <K>
+	 */
+	public interface ReleaseAction<K>
+	{
+		void release(K key) throws GeppettoExecutionException;
+	}
+
+	private ConcurrentMap<K, AtomicInteger> counters = new ConcurrentHashMap<K, AtomicInteger>();
+
+	/**
+	 * @param key
+	 * @return the value of the counter after the increment
+	 */
+	public int increment(K key)
+	{
+		while(true)
+		{
+			AtomicInteger counter = counters.get(key);
+			if(counter == null)
+			{
+				AtomicInteger newCounter = new AtomicInteger(0);
+				counter = counters.putIfAbsent(key, newCounter);
+				if(counter == null)
+				{
+					counter = newCounter;
+				}
+			}
+			synchronized(counter)
+			{
+				// the counter might have reached zero and been discarded in the meantime, in that case we start over
+				if(counters.get(key) == counter)
+				{
+					return counter.incrementAndGet();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param key
+	 * @param action
+	 *            executed if the counter reaches zero, can be null
+	 * @return the value of the counter after the decrement
+	 * @throws GeppettoExecutionException
+	 *             if the action failed, the counter is discarded anyway
+	 */
+	public int decrement(K key, ReleaseAction<K> action) throws GeppettoExecutionException
+	{
+		while(true)
+		{
+			AtomicInteger counter = counters.get(key);
+			if(counter == null)
+			{
+				return 0;
+			}
+			synchronized(counter)
+			{
+				if(counters.get(key) != counter)
+				{
+					continue;
+				}
+				int count = counter.decrementAndGet();
+				if(count > 0)
+				{
+					return count;
+				}
+				try
+				{
+					if(action != null)
+					{
+						action.release(key);
+					}
+				}
+				finally
+				{
+					counters.remove(key, counter);
+				}
+				return 0;
+			}
+		}
+	}
+
+	/**
+	 * @param key
+	 * @return the current value of the counter
+	 */
+	public int get(K key)
+	{
+		AtomicInteger counter = counters.get(key);
+		return counter == null ? 0 : counter.get();
+	}
+
+}
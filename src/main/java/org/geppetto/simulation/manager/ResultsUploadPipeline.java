@@ -0,0 +1,226 @@
+
+package org.geppetto.simulation.manager;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.geppetto.core.beans.PathConfiguration;
+import org.geppetto.core.data.DataManagerHelper;
+import org.geppetto.core.data.model.IExperiment;
+import org.geppetto.core.data.model.IPersistedData;
+import org.geppetto.core.data.model.ISimulationResult;
+import org.geppetto.core.data.model.PersistedDataType;
+import org.geppetto.core.data.model.ResultsFormat;
+import org.geppetto.core.manager.Scope;
+import org.geppetto.simulation.storage.ContentAddressedStore;
+import org.geppetto.simulation.utilities.StreamingZipper;
+
+/**
+ * Moves the results of a simulator to their final location once the simulator is done. The RAW results are zipped in a compression stage, then the zip and the recordings are uploaded
+ * concurrently by a pool of bounded size. The listener is called once with all the results so that they can be persisted together. Nothing is done on the thread of the caller.
+ */
+public class ResultsUploadPipeline
+{
+
+	private static Log logger = LogFactory.getLog(ResultsUploadPipeline.class);
+
+	/**
+	 * Notified when all the results of a simulator have been uploaded or when one of them failed
+	 */
+	public interface ResultsListener
+	{
+		/**
+		 * @param simulationResults
+		 *            in the same order the results were handed over, the RAW results last
+		 */
+		void resultsUploaded(List<ISimulationResult> simulationResults);
+
+		void resultsFailed(Exception e);
+	}
+
+	private static final String RAW_RECORDING = "rawRecording.zip";
+
+	private ExecutorService compressionExecutor;
+
+	private ExecutorService uploadExecutor;
+
+	private int compressionLevel;
+
+	/**
+	 * @param uploadParallelism
+	 *            how many files can be uploaded at the same time
+	 * @param compressionLevel
+	 *            of the zip of the RAW results, {@link StreamingZipper#STORE} doesn't compress them
+	 */
+	public ResultsUploadPipeline(int uploadParallelism, int compressionLevel)
+	{
+		this.compressionLevel = compressionLevel;
+		compressionExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), threadFactory("ResultsCompression-"));
+		uploadExecutor = Executors.newFixedThreadPool(uploadParallelism, threadFactory("ResultsUpload-"));
+	}
+
+	/**
+	 * @param experiment
+	 * @param instancePath
+	 *            the instance simulated by the simulator which produced the results
+	 * @param results
+	 * @param listener
+	 */
+	public void process(final IExperiment experiment, final String instancePath, Map<File, ResultsFormat> results, final ResultsListener listener)
+	{
+		final long projectId = experiment.getParentProject().getId();
+		final List<File> recordings = new ArrayList<File>();
+		final List<File> rawToZip = new ArrayList<File>();
+		for(Map.Entry<File, ResultsFormat> result : results.entrySet())
+		{
+			switch(result.getValue())
+			{
+				case GEPPETTO_RECORDING:
+				{
+					recordings.add(result.getKey());
+					break;
+				}
+				case RAW:
+				{
+					rawToZip.add(result.getKey());
+					break;
+				}
+			}
+		}
+
+		// one slot per recording plus one for the zip of the RAW results
+		final ISimulationResult[] simulationResults = new ISimulationResult[recordings.size() + 1];
+		final AtomicInteger pending = new AtomicInteger(simulationResults.length);
+		final AtomicBoolean failed = new AtomicBoolean(false);
+		final long start = System.currentTimeMillis();
+
+		for(int i = 0; i < recordings.size(); i++)
+		{
+			final int slot = i;
+			final File recording = recordings.get(i);
+			uploadExecutor.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						IPersistedData persistedRecording = upload(recording);
+						simulationResults[slot] = DataManagerHelper.getDataManager().newSimulationResult(instancePath, persistedRecording, ResultsFormat.GEPPETTO_RECORDING);
+						uploaded(simulationResults, pending, failed, listener, start, instancePath);
+					}
+					catch(Exception e)
+					{
+						failed(e, failed, listener);
+					}
+				}
+			});
+		}
+
+		compressionExecutor.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					// the RAW results are read once and compressed straight into the zip
+					StreamingZipper zipper = new StreamingZipper(PathConfiguration.createExperimentTmpPath(Scope.RUN, projectId, experiment.getId(), instancePath, RAW_RECORDING), compressionLevel);
+					for(File raw : rawToZip)
+					{
+						zipper.addToZip(raw);
+					}
+					final Path zipped = zipper.processAddedFilesAndZip();
+					// the compression thread is free for the next simulator while the zip is uploaded
+					uploadExecutor.execute(new Runnable()
+					{
+						@Override
+						public void run()
+						{
+							try
+							{
+								IPersistedData rawResults = upload(zipped.toFile());
+								simulationResults[simulationResults.length - 1] = DataManagerHelper.getDataManager().newSimulationResult(instancePath, rawResults, ResultsFormat.RAW);
+								uploaded(simulationResults, pending, failed, listener, start, instancePath);
+							}
+							catch(Exception e)
+							{
+								failed(e, failed, listener);
+							}
+						}
+					});
+				}
+				catch(Exception e)
+				{
+					failed(e, failed, listener);
+				}
+			}
+		});
+	}
+
+	/**
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	private IPersistedData upload(File file) throws IOException
+	{
+		if(!DataManagerHelper.getDataManager().isDefault())
+		{
+			// save results to amazon instance server, unless the same bytes are there already
+			return DataManagerHelper.getDataManager().newPersistedData(ContentAddressedStore.getInstance().store(file), PersistedDataType.RECORDING);
+		}
+		else
+		{
+			// create persisted data object, but don't save it to a server, just locally
+			return DataManagerHelper.getDataManager().newPersistedData(file.toURI().toURL(), PersistedDataType.RECORDING);
+		}
+	}
+
+	private static void uploaded(ISimulationResult[] simulationResults, AtomicInteger pending, AtomicBoolean failed, ResultsListener listener, long start, String instancePath)
+	{
+		if(pending.decrementAndGet() == 0 && !failed.get())
+		{
+			logger.info("Results of " + instancePath + " uploaded in " + (System.currentTimeMillis() - start) + " ms");
+			listener.resultsUploaded(Arrays.asList(simulationResults));
+		}
+	}
+
+	private static void failed(Exception e, AtomicBoolean failed, ResultsListener listener)
+	{
+		// only the first failure is reported
+		if(failed.compareAndSet(false, true))
+		{
+			listener.resultsFailed(e);
+		}
+	}
+
+	private static ThreadFactory threadFactory(final String prefix)
+	{
+		return new ThreadFactory()
+		{
+			private AtomicInteger threadCount = new AtomicInteger(0);
+
+			@Override
+			public Thread newThread(Runnable r)
+			{
+				Thread thread = new Thread(r, prefix + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+}
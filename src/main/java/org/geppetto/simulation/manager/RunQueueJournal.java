@@ -0,0 +1,331 @@
+
+package org.geppetto.simulation.manager;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.geppetto.core.data.model.IExperiment;
+import org.geppetto.core.data.model.IUser;
+
+/**
+ * Append-only journal of the experiments waiting in or running through the ExperimentRunManager. It allows the ExperimentRunManager to recover its queue after a restart in a time which
+ * is proportional to the pending work rather than to the size of the database. Every line records one event:
+ *
+ * <pre>
+ * Q	login	projectId	experimentId	(queued)
+ * R	projectId	experimentId		(started running)
+ * D	projectId	experimentId		(left the run manager: completed, failed or cancelled)
+ * </pre>
+ *
+ * Every append is forced to disk. A line truncated by a crash is ignored on replay. The journal compacts itself, keeping only the pending experiments, every time it grows to twice the
+ * size it had after the previous compaction.
+ */
+public class RunQueueJournal
+{
+
+	private static Log logger = LogFactory.getLog(RunQueueJournal.class);
+
+	private static final String QUEUED = "Q";
+	private static final String RUNNING = "R";
+	private static final String DONE = "D";
+
+	private Path file;
+
+	private FileChannel channel;
+
+	// the journal is not compacted while it's smaller than this
+	private static final long MIN_COMPACTION_SIZE = 1024 * 1024;
+
+	// the size of the journal after it was last compacted
+	private long compactedSize = 0;
+
+	/**
+	 * A pending experiment as recorded in the journal
+	 */
+	public static class Entry
+	{
+		private String login;
+		private long projectId;
+		private long experimentId;
+		private boolean running;
+
+		Entry(String login, long projectId, long experimentId)
+		{
+			this.login = login;
+			this.projectId = projectId;
+			this.experimentId = experimentId;
+		}
+
+		public String getLogin()
+		{
+			return login;
+		}
+
+		public long getProjectId()
+		{
+			return projectId;
+		}
+
+		public long getExperimentId()
+		{
+			return experimentId;
+		}
+
+		/**
+		 * @return true if the experiment was running when the journal was last written
+		 */
+		public boolean isRunning()
+		{
+			return running;
+		}
+	}
+
+	/**
+	 * @param file
+	 */
+	public RunQueueJournal(Path file)
+	{
+		this.file = file;
+	}
+
+	/**
+	 * @return true if there is a journal to replay, if not the ExperimentRunManager has to rebuild its queue from the database
+	 */
+	public boolean exists()
+	{
+		return Files.isRegularFile(file);
+	}
+
+	/**
+	 * @return the pending experiments in the order they were queued
+	 * @throws IOException
+	 */
+	public synchronized List<Entry> replay() throws IOException
+	{
+		Map<String, Entry> pending = new LinkedHashMap<String, Entry>();
+		String journal = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+		List<String> lines = new ArrayList<String>(Arrays.asList(journal.split("\n")));
+		if(!journal.isEmpty() && !journal.endsWith("\n"))
+		{
+			// truncated by a crash while it was being written, it could still look like a valid line
+			logger.warn("Skipping truncated run queue journal line: " + lines.remove(lines.size() - 1));
+		}
+		for(String line : lines)
+		{
+			if(line.isEmpty())
+			{
+				continue;
+			}
+			String[] fields = line.split("\t");
+			try
+			{
+				if(fields[0].equals(QUEUED) && fields.length == 4)
+				{
+					Entry entry = new Entry(URLDecoder.decode(fields[1], "UTF-8"), Long.parseLong(fields[2]), Long.parseLong(fields[3]));
+					pending.put(key(entry.projectId, entry.experimentId), entry);
+				}
+				else if(fields[0].equals(RUNNING) && fields.length == 3)
+				{
+					Entry entry = pending.get(key(Long.parseLong(fields[1]), Long.parseLong(fields[2])));
+					if(entry != null)
+					{
+						entry.running = true;
+					}
+				}
+				else if(fields[0].equals(DONE) && fields.length == 3)
+				{
+					pending.remove(key(Long.parseLong(fields[1]), Long.parseLong(fields[2])));
+				}
+				else
+				{
+					logger.warn("Skipping malformed run queue journal line: " + line);
+				}
+			}
+			catch(IllegalArgumentException e)
+			{
+				logger.warn("Skipping malformed run queue journal line: " + line);
+			}
+		}
+		return new ArrayList<Entry>(pending.values());
+	}
+
+	/**
+	 * Rewrites the journal so that it only contains the given experiments, it is replaced atomically so that a crash while compacting leaves the previous journal in place
+	 *
+	 * @param queued
+	 *            the queued experiments by user
+	 * @throws IOException
+	 */
+	public synchronized void compact(Map<IUser, ? extends Collection<IExperiment>> queued) throws IOException
+	{
+		StringBuilder lines = new StringBuilder();
+		for(Map.Entry<IUser, ? extends Collection<IExperiment>> userQueue : queued.entrySet())
+		{
+			for(IExperiment experiment : userQueue.getValue())
+			{
+				lines.append(queuedLine(userQueue.getKey(), experiment));
+			}
+		}
+		rewrite(lines.toString());
+	}
+
+	/**
+	 * Rewrites the journal so that it only contains the experiments which are still pending according to the journal itself, the ones running are journaled as running again
+	 *
+	 * @throws IOException
+	 */
+	private void compact() throws IOException
+	{
+		StringBuilder lines = new StringBuilder();
+		for(Entry entry : replay())
+		{
+			lines.append(QUEUED + "\t" + URLEncoder.encode(entry.login, "UTF-8") + "\t" + entry.projectId + "\t" + entry.experimentId + "\n");
+			if(entry.running)
+			{
+				lines.append(runningLine(entry.projectId, entry.experimentId));
+			}
+		}
+		rewrite(lines.toString());
+	}
+
+	/**
+	 * Replaces the journal atomically with the given lines
+	 *
+	 * @param lines
+	 * @throws IOException
+	 */
+	private void rewrite(String lines) throws IOException
+	{
+		close();
+		Files.createDirectories(file.toAbsolutePath().getParent());
+		Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+		try(FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+		{
+			ByteBuffer buffer = ByteBuffer.wrap(lines.getBytes(StandardCharsets.UTF_8));
+			while(buffer.hasRemaining())
+			{
+				out.write(buffer);
+			}
+			out.force(true);
+		}
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		compactedSize = Files.size(file);
+	}
+
+	/**
+	 * @param user
+	 * @param experiment
+	 * @throws IOException
+	 */
+	public void queued(IUser user, IExperiment experiment) throws IOException
+	{
+		append(queuedLine(user, experiment));
+	}
+
+	/**
+	 * @param experiment
+	 * @throws IOException
+	 */
+	public void started(IExperiment experiment) throws IOException
+	{
+		append(runningLine(experiment.getParentProject().getId(), experiment.getId()));
+	}
+
+	/**
+	 * @param experiment
+	 * @throws IOException
+	 */
+	public void done(IExperiment experiment) throws IOException
+	{
+		append(DONE + "\t" + experiment.getParentProject().getId() + "\t" + experiment.getId() + "\n");
+	}
+
+	/**
+	 * @throws IOException
+	 */
+	public synchronized void close() throws IOException
+	{
+		if(channel != null)
+		{
+			channel.close();
+			channel = null;
+		}
+	}
+
+	/**
+	 * Closes and deletes the journal, the ExperimentRunManager will have to rebuild its queue from the database the next time it starts
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void delete() throws IOException
+	{
+		close();
+		Files.deleteIfExists(file);
+	}
+
+	/**
+	 * @param line
+	 * @throws IOException
+	 */
+	private synchronized void append(String line) throws IOException
+	{
+		if(channel == null)
+		{
+			Files.createDirectories(file.toAbsolutePath().getParent());
+			channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+		while(buffer.hasRemaining())
+		{
+			channel.write(buffer);
+		}
+		// the data only, the file metadata is not needed to replay the journal
+		channel.force(false);
+		if(channel.size() > Math.max(MIN_COMPACTION_SIZE, 2 * compactedSize))
+		{
+			try
+			{
+				compact();
+			}
+			catch(IOException e)
+			{
+				// the line is journaled, the previous journal is still in place and it's compacted again on the next append
+				logger.warn("Could not compact the run queue journal", e);
+			}
+		}
+	}
+
+	private static String queuedLine(IUser user, IExperiment experiment) throws UnsupportedEncodingException
+	{
+		// the login is encoded so that it cannot break the line format
+		return QUEUED + "\t" + URLEncoder.encode(user.getLogin(), "UTF-8") + "\t" + experiment.getParentProject().getId() + "\t" + experiment.getId() + "\n";
+	}
+
+	private static String runningLine(long projectId, long experimentId)
+	{
+		return RUNNING + "\t" + projectId + "\t" + experimentId + "\n";
+	}
+
+	private static String key(long projectId, long experimentId)
+	{
+		return projectId + "/" + experimentId;
+	}
+
+}
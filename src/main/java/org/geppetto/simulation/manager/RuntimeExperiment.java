@@ -5,9 +5,20 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -40,11 +51,53 @@ import org.geppetto.model.util.GeppettoModelException;
 import org.geppetto.model.util.PointerUtility;
 import org.geppetto.model.values.Pointer;
 import org.geppetto.model.values.Quantity;
+import org.geppetto.model.values.TimeSeries;
 import org.geppetto.model.values.ValuesFactory;
+import org.geppetto.simulation.IExperimentStateConsumer;
+import org.geppetto.simulation.utilities.ExperimentStateEncoder;
 
 public class RuntimeExperiment
 {
 
+	// how long a recording stays open without being read
+	private static final long RECORDING_IDLE_TIMEOUT = 60000;
+
+	// closes the idle recordings of all the experiments
+	private static ScheduledExecutorService recordingsEvictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+	{
+		@Override
+		public Thread newThread(Runnable r)
+		{
+			Thread thread = new Thread(r, "RecordingsEvictor");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/**
+	 * A recording kept open between reads
+	 */
+	private static class OpenRecording
+	{
+		private RecordingReader recordingReader;
+		private long lastUsed;
+
+		OpenRecording(RecordingReader recordingReader)
+		{
+			this.recordingReader = recordingReader;
+		}
+	}
+
+	// the open recordings by URL
+	private Map<String, OpenRecording> openRecordings = new HashMap<String, OpenRecording>();
+
+	private ScheduledFuture<?> evictionTask;
+
+	private static final String TIME = "time(StateVariable)";
+
+	// the recorded variables of experimentState by instance path, sorted so that the variables of an instance are a contiguous range
+	private NavigableMap<String, VariableValue> recordedVariables = new TreeMap<String, VariableValue>();
+
 	private ExperimentState experimentState;
 
 	private IExperiment experiment;
@@ -83,14 +136,14 @@ public class RuntimeExperiment
 						{
 							VariableValue variableValue = GeppettoFactory.eINSTANCE.createVariableValue();
 							variableValue.setPointer(PointerUtility.getPointer(runtimeProject.getGeppettoModel(), instancePath));
-							experimentState.getRecordedVariables().add(variableValue);
+							addRecordedVariable(variableValue);
 						}
 					}
 
 				}
 				VariableValue time = GeppettoFactory.eINSTANCE.createVariableValue();
-				time.setPointer(PointerUtility.getPointer(runtimeProject.getGeppettoModel(), "time(StateVariable)"));
-				experimentState.getRecordedVariables().add(time);
+				time.setPointer(PointerUtility.getPointer(runtimeProject.getGeppettoModel(), TIME));
+				addRecordedVariable(time);
 			}
 		}
 		catch(GeppettoModelException e)
@@ -100,10 +153,57 @@ public class RuntimeExperiment
 	}
 
 	/**
-	 * @param recordedVariables
-	 * @return
+	 * @param variableValue
+	 *            added to the experiment state and to the index
+	 */
+	private void addRecordedVariable(VariableValue variableValue)
+	{
+		experimentState.getRecordedVariables().add(variableValue);
+		recordedVariables.put(variableValue.getPointer().getInstancePath(), variableValue);
+	}
+
+	/**
+	 * @param variables
+	 *            the instance paths of the requested variables, with or without types
+	 * @return the time followed by the recorded variables which were requested, in the order they were requested
 	 * @throws GeppettoExecutionException
 	 */
+	private Collection<VariableValue> getRecordedVariables(List<String> variables) throws GeppettoExecutionException
+	{
+		Map<String, VariableValue> requested = new LinkedHashMap<String, VariableValue>();
+		if(recordedVariables.containsKey(TIME))
+		{
+			requested.put(TIME, recordedVariables.get(TIME));
+		}
+		for(String variable : variables)
+		{
+			try
+			{
+				// the pointer gives the canonical instance path the index is keyed with
+				String instancePath = PointerUtility.getPointer(runtimeProject.getGeppettoModel(), variable).getInstancePath();
+				VariableValue variableValue = recordedVariables.get(instancePath);
+				if(variableValue != null)
+				{
+					requested.put(instancePath, variableValue);
+				}
+			}
+			catch(GeppettoModelException e)
+			{
+				throw new GeppettoExecutionException(e);
+			}
+		}
+		return requested.values();
+	}
+
+	/**
+	 * @param prefix
+	 * @return the recorded variables whose instance path starts with prefix
+	 */
+	private Collection<VariableValue> getRecordedVariablesWithPrefix(String prefix)
+	{
+		return recordedVariables.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values();
+	}
+
 	/**
 	 * @param recordedVariables
 	 * @param watch
@@ -123,15 +223,7 @@ public class RuntimeExperiment
 				IAspectConfiguration aspectConfiguration = getAspectConfiguration(pointer);
 
 				// first let's update the model state
-				VariableValue variableValue = null;
-				for(VariableValue vv : experimentState.getRecordedVariables())
-				{
-					if(PointerUtility.equals(vv.getPointer(), pointer))
-					{
-						variableValue = vv;
-						break;
-					}
-				}
+				VariableValue variableValue = recordedVariables.get(pointer.getInstancePath());
 				if(!watch)
 				{
 					if(variableValue != null)
@@ -139,6 +231,7 @@ public class RuntimeExperiment
 						// it already existed, we remove it, it means we are stop watching it
 						// Matteo: I don't like this but not changing it
 						experimentState.getRecordedVariables().remove(variableValue);
+						recordedVariables.remove(pointer.getInstancePath());
 
 						// now let's update the DB
 						String instancePath = null;
@@ -168,7 +261,7 @@ public class RuntimeExperiment
 						// we add it
 						variableValue = GeppettoFactory.eINSTANCE.createVariableValue();
 						variableValue.setPointer(pointer);
-						experimentState.getRecordedVariables().add(variableValue);
+						addRecordedVariable(variableValue);
 
 						// now let's update the DB
 						DataManagerHelper.getDataManager().addWatchedVariable(aspectConfiguration, recordedVariable);
@@ -206,8 +299,17 @@ public class RuntimeExperiment
 	 */
 	public void release()
 	{
+		closeRecordings(true);
+		recordedVariables.clear();
 		if(experimentState != null)
 		{
+			for(VariableValue variableValue : experimentState.getRecordedVariables())
+			{
+				if(variableValue.getValue() instanceof StoredTimeSeries)
+				{
+					TimeSeriesStore.getInstance().release((StoredTimeSeries) variableValue.getValue());
+				}
+			}
 			experimentState.getRecordedVariables().clear();
 			experimentState.getSetParameters().clear();
 			experimentState = null;
@@ -236,7 +338,10 @@ public class RuntimeExperiment
 				modelFormat = supportedOutputs.get(0);
 			}
 
-			return modelInterpreter.downloadModel(pointer, modelFormat, getAspectConfiguration(pointer));
+			synchronized(modelInterpreter)
+			{
+				return modelInterpreter.downloadModel(pointer, modelFormat, getAspectConfiguration(pointer));
+			}
 		}
 		catch(ModelInterpreterException | GeppettoModelException e)
 		{
@@ -257,7 +362,10 @@ public class RuntimeExperiment
 
 			Pointer pointer = PointerUtility.getPointer(runtimeProject.getGeppettoModel(), instancePath);
 			IModelInterpreter modelInterpreter = runtimeProject.getModelInterpreter(pointer);
-			return modelInterpreter.getSupportedOutputs(pointer);
+			synchronized(modelInterpreter)
+			{
+				return modelInterpreter.getSupportedOutputs(pointer);
+			}
 		}
 		catch(ModelInterpreterException | GeppettoModelException e)
 		{
@@ -271,6 +379,22 @@ public class RuntimeExperiment
 	 */
 	public ExperimentState getExperimentState(List<String> variables,String urlBase) throws GeppettoExecutionException
 	{
+		return getExperimentState(variables, urlBase, null);
+	}
+
+	/**
+	 * @param variables
+	 * @param urlBase
+	 * @param query
+	 *            the time window and the reduction applied to the returned variables, null to return them whole
+	 * @return
+	 * @throws GeppettoExecutionException
+	 */
+	public synchronized ExperimentState getExperimentState(List<String> variables, String urlBase, ExperimentStateQuery query) throws GeppettoExecutionException
+	{
+		// the requested variables, the query is applied to these without copying them first
+		Collection<VariableValue> requestedVariables = variables == null ? experimentState.getRecordedVariables() : getRecordedVariables(variables);
+		boolean recorded = false;
 		// We create an experiment state based on what's requested
 		ExperimentState experimentStateTransfer = GeppettoFactory.eINSTANCE.createExperimentState();
 		experimentStateTransfer.setExperimentId(experiment.getId());
@@ -280,83 +404,45 @@ public class RuntimeExperiment
 		{
 			if(result.getFormat().equals(ResultsFormat.GEPPETTO_RECORDING))
 			{
-				RecordingReader recordingReader = null;
-				// after reading values out from recording, amp to the correct aspect given the watched variable
-
-				if(recordingReader == null)
+				recorded = true;
+				// only the variables of the simulated instance can be in this recording, without a filter they are a range of the index
+				Collection<VariableValue> resultVariables = requestedVariables;
+				if(variables == null)
 				{
-					URL url;
-					try
+					resultVariables = new ArrayList<VariableValue>(getRecordedVariablesWithPrefix(result.getSimulatedInstance()));
+					if(recordedVariables.containsKey(TIME))
 					{
-						url = URLReader.getURL(result.getResult().getUrl(), urlBase);
+						resultVariables.add(recordedVariables.get(TIME));
 					}
-					catch(IOException e)
-					{
-						throw new GeppettoExecutionException(e);
-					}
-
-					recordingReader = new RecordingReader(new Recording(HDF5Reader.readHDF5File(url, experiment.getParentProject().getId())), result.getFormat());
 				}
-
-				List<Pointer> variablesPointers = new ArrayList<Pointer>();
-				if(variables != null)
+				for(VariableValue watchedVariableValue : resultVariables)
 				{
-					for(String variable : variables)
-					{
-						try
-						{
-							variablesPointers.add(PointerUtility.getPointer(runtimeProject.getGeppettoModel(), variable));
-						}
-						catch(GeppettoModelException e)
-						{
-							throw new GeppettoExecutionException(e);
-						}
-
-					}
+					readRecordedVariable(watchedVariableValue, result, urlBase);
 				}
-				// For all the variables that were recorded..
-				for(VariableValue watchedVariableValue : experimentState.getRecordedVariables())
-				{
-					String watchedVariable = watchedVariableValue.getPointer().getInstancePath();
-					if(variables != null)
-					{
-						for(Pointer filteredVariable : variablesPointers)
-						{
-							if(PointerUtility.equals(filteredVariable, watchedVariableValue.getPointer()) || watchedVariable.equals("time(StateVariable)"))
-							{
-								if(watchedVariableValue.getValue() == null && (watchedVariable.startsWith(result.getSimulatedInstance()) || watchedVariable.equals("time(StateVariable)")))
-								{
-									recordingReader.readRecording(watchedVariable, experimentState, true);
-									logger.info("Finished reading results for " + watchedVariable);
-								}
-								experimentStateTransfer.getRecordedVariables().add(EcoreUtil.copy(watchedVariableValue));
-								break;
-							}
-
-						}
-					}
-					else
-					{
-						if(watchedVariableValue.getValue() == null && (watchedVariable.startsWith(result.getSimulatedInstance()) || watchedVariable.equals("time(StateVariable)")))
-						{
-							recordingReader.readRecording(watchedVariable, experimentState, true);
-							logger.info("Finished reading results for " + watchedVariable);
-						}
-					}
-				}
-
-				recordingReader.closeRecording();
-
 			}
 
 		}
-		if(variables == null)
+		if(!recorded)
+		{
+			requestedVariables = Collections.emptyList();
+		}
+		if(query != null)
+		{
+			experimentStateTransfer.getSetParameters().addAll(EcoreUtil.copyAll(experimentState.getSetParameters()));
+			return query.apply(experimentStateTransfer, new ArrayList<VariableValue>(requestedVariables));
+		}
+		else if(variables == null)
 		{
 			// if there was no filter we just return the experiment state which has now been populated
 			return experimentState;
 		}
 		else
 		{
+			for(VariableValue requestedVariable : requestedVariables)
+			{
+				// the values are shared with experimentState, only the pointers are copied
+				experimentStateTransfer.getRecordedVariables().add(TimeSeriesView.createView(requestedVariable));
+			}
 			experimentStateTransfer.getSetParameters().addAll(EcoreUtil.copyAll(experimentState.getSetParameters()));
 			// if only a subset of the variables was requested this has now been stored in experimentStateTransfer, a temporary object which only contains the requested variables
 			return experimentStateTransfer;
@@ -364,6 +450,164 @@ public class RuntimeExperiment
 
 	}
 
+	/**
+	 * Sends the requested variables to consumer in the binary encoding of {@link ExperimentStateEncoder}. Every variable is read from the recording, reduced by the query and encoded
+	 * before the next one is read, so that the reduced copies of the variables are never held all at once. The values read are kept by the {@link TimeSeriesStore} as they are by
+	 * {@link #getExperimentState(List, String, ExperimentStateQuery)}.
+	 * 
+	 * @param variables
+	 * @param urlBase
+	 * @param query
+	 *            the time window and the reduction applied to the sent variables, null to send them whole
+	 * @param consumer
+	 * @throws GeppettoExecutionException
+	 */
+	public void streamExperimentState(List<String> variables, String urlBase, ExperimentStateQuery query, IExperimentStateConsumer consumer) throws GeppettoExecutionException
+	{
+		List<VariableValue> requestedVariables = new ArrayList<VariableValue>();
+		VariableValue time;
+		synchronized(this)
+		{
+			List<ISimulationResult> recordings = getRecordings();
+			if(!recordings.isEmpty())
+			{
+				requestedVariables.addAll(variables == null ? experimentState.getRecordedVariables() : getRecordedVariables(variables));
+			}
+			time = recordedVariables.get(TIME);
+			if(query != null && time != null)
+			{
+				// the time window of every variable is found in the time
+				for(ISimulationResult result : recordings)
+				{
+					readRecordedVariable(time, result, urlBase);
+				}
+			}
+		}
+
+		ExperimentStateEncoder encoder = new ExperimentStateEncoder();
+		encoder.start(experiment.getId(), experiment.getParentProject().getId(), requestedVariables.size(), consumer);
+		for(VariableValue requestedVariable : requestedVariables)
+		{
+			synchronized(this)
+			{
+				for(ISimulationResult result : getRecordings())
+				{
+					readRecordedVariable(requestedVariable, result, urlBase);
+				}
+			}
+			// the lock is not held while the consumer sends the variable
+			encoder.encode(query == null ? requestedVariable : query.apply(requestedVariable, time), consumer);
+		}
+		encoder.end(consumer);
+	}
+
+	/**
+	 * @return the results of the experiment which are recordings
+	 */
+	private List<ISimulationResult> getRecordings()
+	{
+		List<ISimulationResult> recordings = new ArrayList<ISimulationResult>();
+		for(ISimulationResult result : experiment.getSimulationResults())
+		{
+			if(result.getFormat().equals(ResultsFormat.GEPPETTO_RECORDING))
+			{
+				recordings.add(result);
+			}
+		}
+		return recordings;
+	}
+
+	/**
+	 * Reads the values of a recorded variable from result unless they were already read or the variable is not in result, the recording is only opened if the variable is read. The
+	 * whole variable is read since {@link RecordingReader} has no ranged read, the time window of a query is applied to the values once they are read.
+	 * 
+	 * @param variableValue
+	 * @param result
+	 * @param urlBase
+	 * @throws GeppettoExecutionException
+	 */
+	private void readRecordedVariable(VariableValue variableValue, ISimulationResult result, String urlBase) throws GeppettoExecutionException
+	{
+		String variable = variableValue.getPointer().getInstancePath();
+		if(variableValue.getValue() == null && (variable.startsWith(result.getSimulatedInstance()) || variable.equals(TIME)))
+		{
+			getRecordingReader(result, urlBase).readRecording(variable, experimentState, true);
+			if(variableValue.getValue() instanceof TimeSeries)
+			{
+				// the values are kept as primitives by the store, the boxed ones read from the recording are let go
+				variableValue.setValue(TimeSeriesStore.getInstance().store((TimeSeries) variableValue.getValue()));
+			}
+			logger.info("Finished reading results for " + variable);
+		}
+	}
+
+	/**
+	 * The recordings stay open between calls so that clients asking for a few variables at the time don't open and read the whole recording every time, they are closed after being idle
+	 * for {@link #RECORDING_IDLE_TIMEOUT} ms
+	 * 
+	 * @param result
+	 * @param urlBase
+	 * @return
+	 * @throws GeppettoExecutionException
+	 */
+	private RecordingReader getRecordingReader(ISimulationResult result, String urlBase) throws GeppettoExecutionException
+	{
+		URL url;
+		try
+		{
+			url = URLReader.getURL(result.getResult().getUrl(), urlBase);
+		}
+		catch(IOException e)
+		{
+			throw new GeppettoExecutionException(e);
+		}
+		String key = url.toString();
+		OpenRecording openRecording = openRecordings.get(key);
+		if(openRecording == null)
+		{
+			RecordingReader recordingReader = new RecordingReader(new Recording(HDF5Reader.readHDF5File(url, experiment.getParentProject().getId())), result.getFormat());
+			openRecording = new OpenRecording(recordingReader);
+			openRecordings.put(key, openRecording);
+			if(evictionTask == null)
+			{
+				evictionTask = recordingsEvictor.scheduleWithFixedDelay(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						closeRecordings(false);
+					}
+				}, RECORDING_IDLE_TIMEOUT / 2, RECORDING_IDLE_TIMEOUT / 2, TimeUnit.MILLISECONDS);
+			}
+		}
+		openRecording.lastUsed = System.currentTimeMillis();
+		return openRecording.recordingReader;
+	}
+
+	/**
+	 * @param all
+	 *            if false only the recordings which have been idle for longer than {@link #RECORDING_IDLE_TIMEOUT} are closed
+	 */
+	private synchronized void closeRecordings(boolean all)
+	{
+		long now = System.currentTimeMillis();
+		Iterator<OpenRecording> recordings = openRecordings.values().iterator();
+		while(recordings.hasNext())
+		{
+			OpenRecording openRecording = recordings.next();
+			if(all || now - openRecording.lastUsed > RECORDING_IDLE_TIMEOUT)
+			{
+				openRecording.recordingReader.closeRecording();
+				recordings.remove();
+			}
+		}
+		if(openRecordings.isEmpty() && evictionTask != null)
+		{
+			evictionTask.cancel(false);
+			evictionTask = null;
+		}
+	}
+
 	/**
 	 * @param experiment
 	 * @param instancePath
@@ -454,7 +698,10 @@ public class RuntimeExperiment
 				}
 				variableValue.setValue(value);
 
-				((ISetParameterFeature) modelInterpreter.getFeature(GeppettoFeature.SET_PARAMETERS_FEATURE)).setParameter(variableValue);
+				synchronized(modelInterpreter)
+				{
+					((ISetParameterFeature) modelInterpreter.getFeature(GeppettoFeature.SET_PARAMETERS_FEATURE)).setParameter(variableValue);
+				}
 
 				IAspectConfiguration config = getAspectConfiguration(pointer);
 				for(String path : parameters.keySet())
@@ -4,6 +4,7 @@ package org.geppetto.simulation.manager;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -23,11 +24,11 @@ import org.geppetto.core.data.model.ISimulatorConfiguration;
 import org.geppetto.core.datasources.GeppettoDataSourceException;
 import org.geppetto.core.datasources.IDataSourceService;
 import org.geppetto.core.manager.IGeppettoManager;
-import org.geppetto.core.manager.SharedLibraryManager;
+import org.geppetto.core.model.AModelInterpreter;
 import org.geppetto.core.model.GeppettoModelAccess;
-import org.geppetto.core.model.GeppettoModelReader;
 import org.geppetto.core.model.IModelInterpreter;
 import org.geppetto.core.model.ModelInterpreterException;
+import org.geppetto.core.services.GeppettoFeature;
 import org.geppetto.core.services.ServiceCreator;
 import org.geppetto.core.utilities.URLReader;
 import org.geppetto.model.GeppettoLibrary;
@@ -38,8 +39,10 @@ import org.geppetto.model.datasources.DataSource;
 import org.geppetto.model.datasources.Query;
 import org.geppetto.model.datasources.QueryResults;
 import org.geppetto.model.datasources.RunnableQuery;
+import org.geppetto.model.types.ImportType;
 import org.geppetto.model.types.Type;
 import org.geppetto.model.types.TypesPackage;
+import org.geppetto.model.types.util.TypesSwitch;
 import org.geppetto.model.util.GeppettoModelException;
 import org.geppetto.model.util.GeppettoModelTraversal;
 import org.geppetto.model.util.GeppettoVisitingException;
@@ -73,6 +76,9 @@ public class RuntimeProject
 
 	private Map<GeppettoLibrary, IModelInterpreter> modelInterpreters = new HashMap<GeppettoLibrary, IModelInterpreter>();
 
+	// the model interpreter of each library, the interpreters are created when they are first needed
+	private Map<GeppettoLibrary, String> modelInterpreterIds = new HashMap<GeppettoLibrary, String>();
+
 	private Map<IExperiment, RuntimeExperiment> experimentRuntime = new HashMap<IExperiment, RuntimeExperiment>();
 
 	private GeppettoModel geppettoModel;
@@ -103,17 +109,32 @@ public class RuntimeProject
 		{
 			long start = System.currentTimeMillis();
 
-			// reading and parsing the model
-			geppettoModel = GeppettoModelReader.readGeppettoModel(URLReader.getURL(geppettoModelData.getUrl(), project.getBaseURL()));
-
-			// loading the Geppetto common library, we create a clone of what's loaded in the shared common library
-			// since every geppetto model will have his
-			geppettoModel.getLibraries().add(EcoreUtil.copy(SharedLibraryManager.getSharedCommonLibrary()));
+			// reading and parsing the model, unless it was already parsed for another project opened from the same model
+			// the model comes with a clone of the shared common library since every geppetto model has its own
+			geppettoModel = GeppettoModelCache.getInstance().getGeppettoModelWithCommonLibrary(URLReader.getURL(geppettoModelData.getUrl(), project.getBaseURL()));
 			geppettoModelAccess = new GeppettoModelAccess(geppettoModel);
 			logger.info("Model reading took " + (System.currentTimeMillis() - start) + "ms");
-			// create model interpreters
+			// only the types which are resolved automatically are imported when the project is opened, the model interpreters are created for their libraries only
+			// the interpreters of the other libraries are created when their types are resolved or when they are first asked for
+			final EList<Type> autoresolveTypes = new BasicEList<Type>();
+			GeppettoModelTraversal.apply(geppettoModel, new TypesSwitch<Object>()
+			{
+				@Override
+				public Object caseImportType(ImportType type)
+				{
+					if(type.eContainer() instanceof GeppettoLibrary)
+					{
+						modelInterpreterIds.put((GeppettoLibrary) type.eContainer(), type.getModelInterpreterId());
+					}
+					if(type.isAutoresolve())
+					{
+						autoresolveTypes.add(type);
+					}
+					return super.caseImportType(type);
+				}
+			});
 			CreateModelInterpreterServicesVisitor createServicesVisitor = new CreateModelInterpreterServicesVisitor(modelInterpreters, project.getId(), geppettoManager.getScope());
-			GeppettoModelTraversal.apply(geppettoModel, createServicesVisitor);
+			GeppettoModelTraversal.apply(autoresolveTypes, createServicesVisitor);
 			start = System.currentTimeMillis();
 
 			boolean gatherDefaultViews = false;
@@ -124,7 +145,7 @@ public class RuntimeProject
 			}
 			// importing the types defined in the geppetto model using the model interpreters
 			ImportTypesVisitor importTypesVisitor = new ImportTypesVisitor(modelInterpreters, geppettoModelAccess, gatherDefaultViews, geppettoProject.getBaseURL(), false);
-			GeppettoModelTraversal.apply(geppettoModel, importTypesVisitor);
+			GeppettoModelTraversal.apply(autoresolveTypes, importTypesVisitor);
 			
 			if(gatherDefaultViews)
 			{
@@ -160,6 +181,131 @@ public class RuntimeProject
 
 	}
 
+	/**
+	 * Resolves the import types of the variables at the root of the model, the ones a user is most likely to look at first. Used to prefetch the types in the background after the
+	 * project was opened.
+	 * 
+	 * @throws GeppettoExecutionException
+	 */
+	void resolveRootImportTypes() throws GeppettoExecutionException
+	{
+		EList<Type> importTypes = new BasicEList<Type>();
+		synchronized(this)
+		{
+			for(Variable variable : geppettoModel.getVariables())
+			{
+				for(Type type : variable.getTypes())
+				{
+					if(type instanceof ImportType && !importTypes.contains(type))
+					{
+						importTypes.add(type);
+					}
+				}
+			}
+		}
+		for(Type type : importTypes)
+		{
+			synchronized(this)
+			{
+				// the project might have been closed or the type resolved by a user in the meantime
+				if(geppettoManager == null || type.eContainer() == null)
+				{
+					return;
+				}
+				resolveImportTypes(new BasicEList<Type>(Collections.singletonList(type)));
+			}
+		}
+	}
+
+	/**
+	 * Creates a copy of the given runtime project. The model is copied in memory rather than read and imported again, the common library and the imported types included since an EMF
+	 * object can only be contained by one model. The model interpreters are shared with the original since they hold the state of the types they imported: the runs of the copies use
+	 * them at the same time, every call to a model interpreter is made holding its lock. The domain models are shared as well, which is why the projects whose interpreters can change
+	 * them are not copied, see {@link #snapshot()}.
+	 * 
+	 * @param source
+	 * @throws GeppettoExecutionException
+	 */
+	private RuntimeProject(RuntimeProject source) throws GeppettoExecutionException
+	{
+		this.geppettoManager = source.geppettoManager;
+		this.geppettoProject = source.geppettoProject;
+		this.dataSourceServices = new HashMap<String, IDataSourceService>();
+		synchronized(source)
+		{
+			copy(source);
+		}
+	}
+
+	/**
+	 * @param source
+	 * @throws GeppettoExecutionException
+	 */
+	private void copy(RuntimeProject source) throws GeppettoExecutionException
+	{
+		try
+		{
+			long start = System.currentTimeMillis();
+			EcoreUtil.Copier copier = new EcoreUtil.Copier();
+			geppettoModel = (GeppettoModel) copier.copy(source.geppettoModel);
+			copier.copyReferences();
+			// the interpreters are keyed by library, we map them to the copied libraries
+			for(Map.Entry<GeppettoLibrary, IModelInterpreter> entry : source.modelInterpreters.entrySet())
+			{
+				modelInterpreters.put((GeppettoLibrary) copier.get(entry.getKey()), entry.getValue());
+			}
+			for(Map.Entry<GeppettoLibrary, String> entry : source.modelInterpreterIds.entrySet())
+			{
+				modelInterpreterIds.put((GeppettoLibrary) copier.get(entry.getKey()), entry.getValue());
+			}
+			geppettoModelAccess = new GeppettoModelAccess(geppettoModel);
+			logger.info("Project snapshot took " + (System.currentTimeMillis() - start) + "ms");
+		}
+		catch(Exception e)
+		{
+			throw new GeppettoExecutionException(e);
+		}
+	}
+
+	/**
+	 * Creates an isolated copy of this runtime project, used to run an experiment without interfering with other experiments of the same project which are running at the same time.
+	 * If a model interpreter of this project can set parameters the project is opened again instead, with its own model interpreters and domain models, otherwise the parameters set
+	 * by a run would be set for the other runs as well.
+	 * 
+	 * @return
+	 * @throws GeppettoExecutionException
+	 */
+	public RuntimeProject snapshot() throws GeppettoExecutionException
+	{
+		if(canSetParameters())
+		{
+			try
+			{
+				return new RuntimeProject(geppettoProject, geppettoManager);
+			}
+			catch(MalformedURLException | GeppettoInitializationException e)
+			{
+				throw new GeppettoExecutionException(e);
+			}
+		}
+		return new RuntimeProject(this);
+	}
+
+	/**
+	 * @return true if one of the model interpreters created so far can change the domain models by setting parameters
+	 */
+	private synchronized boolean canSetParameters()
+	{
+		for(IModelInterpreter modelInterpreter : modelInterpreters.values())
+		{
+			if(modelInterpreter.isSupported(GeppettoFeature.SET_PARAMETERS_FEATURE))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
 	/**
 	 * @param requestId
 	 * @param experiment
@@ -253,7 +399,7 @@ public class RuntimeProject
 	/**
 	 * 
 	 */
-	public void release() throws GeppettoExecutionException
+	public synchronized void release() throws GeppettoExecutionException
 	{
 		for(IExperiment e : experimentRuntime.keySet())
 		{
@@ -290,7 +436,7 @@ public class RuntimeProject
 	 * @return
 	 * @throws GeppettoModelException
 	 */
-	public GeppettoModel resolveImportType(List<String> typePaths) throws GeppettoExecutionException
+	public synchronized GeppettoModel resolveImportType(List<String> typePaths) throws GeppettoExecutionException
 	{
 		try
 		{
@@ -300,25 +446,34 @@ public class RuntimeProject
 			{
 				importTypes.add(PointerUtility.getType(geppettoModel, typePath));
 			}
+			resolveImportTypes(importTypes);
+		}
+		catch(GeppettoModelException e)
+		{
+			throw new GeppettoExecutionException(e);
+		}
 
+		return geppettoModel;
+	}
+
+	/**
+	 * @param importTypes
+	 * @throws GeppettoExecutionException
+	 */
+	private void resolveImportTypes(EList<Type> importTypes) throws GeppettoExecutionException
+	{
+		try
+		{
 			CreateModelInterpreterServicesVisitor createServicesVisitor = new CreateModelInterpreterServicesVisitor(modelInterpreters, geppettoProject.getId(), geppettoManager.getScope());
 			GeppettoModelTraversal.apply(importTypes, createServicesVisitor);
 
 			ImportTypesVisitor importTypesVisitor = new ImportTypesVisitor(modelInterpreters, geppettoModelAccess, false, geppettoProject.getBaseURL());
 			GeppettoModelTraversal.apply(importTypes, importTypesVisitor);
-
 		}
-
 		catch(GeppettoVisitingException e)
 		{
 			throw new GeppettoExecutionException(e);
 		}
-		catch(GeppettoModelException e)
-		{
-			throw new GeppettoExecutionException(e);
-		}
-
-		return geppettoModel;
 	}
 
 	/**
@@ -326,7 +481,7 @@ public class RuntimeProject
 	 * @return
 	 * @throws GeppettoExecutionException
 	 */
-	public GeppettoModel resolveImportValue(String path) throws GeppettoExecutionException
+	public synchronized GeppettoModel resolveImportValue(String path) throws GeppettoExecutionException
 	{
 		try
 		{
@@ -341,8 +496,12 @@ public class RuntimeProject
 			{
 				// this import type is inside a library
 				GeppettoLibrary library = (GeppettoLibrary) type.eContainer();
-				IModelInterpreter modelInterpreter = modelInterpreters.get(library);
-				Value importedValue = modelInterpreter.importValue(importValue);
+				IModelInterpreter modelInterpreter = getModelInterpreter(library);
+				Value importedValue;
+				synchronized(modelInterpreter)
+				{
+					importedValue = modelInterpreter.importValue(importValue);
+				}
 				// Class<? extends EObject> a = importedValue.eContainer().getClass();
 				if(importValue.eContainer() instanceof Type)
 				{
@@ -485,19 +644,45 @@ public class RuntimeProject
 	/**
 	 * @param pointer
 	 * @return
+	 * @throws GeppettoExecutionException
 	 */
-	public IModelInterpreter getModelInterpreter(Pointer pointer)
+	public IModelInterpreter getModelInterpreter(Pointer pointer) throws GeppettoExecutionException
 	{
 		return getModelInterpreter(PointerUtility.getGeppettoLibrary(pointer));
 	}
 
 	/**
 	 * @param library
-	 * @return
+	 * @return the model interpreter of library, created if this is the first time it's needed. It can be shared with the copies of this project, see {@link #snapshot()}, calls to it
+	 *         have to be made holding its lock
+	 * @throws GeppettoExecutionException
+	 *             if library has no model interpreter or it can't be created
 	 */
-	public IModelInterpreter getModelInterpreter(GeppettoLibrary library)
+	public synchronized IModelInterpreter getModelInterpreter(GeppettoLibrary library) throws GeppettoExecutionException
 	{
-		return modelInterpreters.get(library);
+		IModelInterpreter modelInterpreter = modelInterpreters.get(library);
+		if(modelInterpreter == null)
+		{
+			// the library might have had all its types imported already, its interpreter is found through the import types it had when the project was opened
+			String modelInterpreterId = modelInterpreterIds.get(library);
+			if(modelInterpreterId == null || geppettoManager == null)
+			{
+				throw new GeppettoExecutionException("No model interpreter for library " + (library == null ? null : library.getId()));
+			}
+			try
+			{
+				AModelInterpreter newInterpreter = (AModelInterpreter) ServiceCreator.getNewServiceInstance(modelInterpreterId);
+				newInterpreter.setProjectId(geppettoProject.getId());
+				newInterpreter.setScope(geppettoManager.getScope());
+				modelInterpreters.put(library, newInterpreter);
+				modelInterpreter = newInterpreter;
+			}
+			catch(GeppettoInitializationException e)
+			{
+				throw new GeppettoExecutionException(e);
+			}
+		}
+		return modelInterpreter;
 	}
 
 	/**
@@ -0,0 +1,51 @@
+
+package org.geppetto.simulation.manager;
+
+import org.geppetto.core.common.GeppettoExecutionException;
+import org.geppetto.core.simulator.ISimulator;
+
+/**
+ * This class helps incapsulating the execution of a simulator step, it is submitted to the simulators executor of the ExperimentRunManager rather than running on a thread of its own
+ */
+public class SimulatorRunTask implements Runnable
+{
+
+	private ISimulator simulator;
+	private ExperimentRun experimentRun;
+
+	/**
+	 * @param simulator
+	 * @param experimentRun
+	 *            the run coordinating this simulator, it is notified when this task terminates and if the simulator fails
+	 */
+	public SimulatorRunTask(ISimulator simulator, ExperimentRun experimentRun)
+	{
+		this.simulator = simulator;
+		this.experimentRun = experimentRun;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run()
+	{
+		try
+		{
+			simulator.simulate();
+		}
+		catch(GeppettoExecutionException | RuntimeException e)
+		{
+			// the pool thread survives, the failure is handed back to the coordinator
+			experimentRun.simulatorFailed(simulator, e);
+		}
+		finally
+		{
+			experimentRun.notifyRunStateChanged();
+		}
+
+	}
+
+}
@@ -0,0 +1,143 @@
+package org.geppetto.simulation.manager;
+
+import java.nio.DoubleBuffer;
+import java.util.AbstractList;
+
+import org.eclipse.emf.common.util.ECollections;
+import org.eclipse.emf.common.util.EList;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.geppetto.model.values.Unit;
+import org.geppetto.model.values.ValuesPackage;
+import org.geppetto.model.values.impl.TimeSeriesImpl;
+
+/**
+ * A read-only time series whose values are kept by a {@link TimeSeriesStore}, either in a primitive array or in a memory mapped file once they were spilled. The values are boxed
+ * only when they are read through {@link #getValue()}. The values never change once stored, a series released by the store can still be read by whoever holds it, e.g. a
+ * {@link TimeSeriesView} being serialised, and its memory goes with its last reference.
+ */
+public class StoredTimeSeries extends TimeSeriesImpl
+{
+
+	private TimeSeriesStore store;
+
+	private final int size;
+
+	// one of the two is set, the array until the values are spilled
+	private volatile double[] values;
+
+	private volatile DoubleBuffer buffer;
+
+	// when the values were last read according to the clock of the store, written without locking
+	private volatile long lastAccessed;
+
+	private EList<Double> valueList = ECollections.unmodifiableEList(new AbstractList<Double>()
+	{
+		@Override
+		public Double get(int index)
+		{
+			return StoredTimeSeries.this.get(index);
+		}
+
+		@Override
+		public int size()
+		{
+			return size;
+		}
+	});
+
+	/**
+	 * @param store
+	 * @param values
+	 * @param unit
+	 */
+	StoredTimeSeries(TimeSeriesStore store, double[] values, Unit unit)
+	{
+		super();
+		this.store = store;
+		this.values = values;
+		this.size = values.length;
+		this.lastAccessed = store.tick();
+		if(unit != null)
+		{
+			setUnit(EcoreUtil.copy(unit));
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.geppetto.model.values.impl.TimeSeriesImpl#getValue()
+	 */
+	@Override
+	public EList<Double> getValue()
+	{
+		lastAccessed = store.tick();
+		return valueList;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.geppetto.model.values.impl.TimeSeriesImpl#eIsSet(int)
+	 */
+	@Override
+	public boolean eIsSet(int featureID)
+	{
+		// the inherited value field is never set, the copier and the serializer skip the features which are not set
+		if(featureID == ValuesPackage.TIME_SERIES__VALUE)
+		{
+			return size > 0;
+		}
+		return super.eIsSet(featureID);
+	}
+
+	/**
+	 * @param index
+	 * @return the value at index without boxing it
+	 */
+	public double get(int index)
+	{
+		double[] v = values;
+		if(v != null)
+		{
+			return v[index];
+		}
+		return buffer.get(index);
+	}
+
+	/**
+	 * @return the number of values
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * @return false if the values were spilled out of the heap
+	 */
+	public boolean isOnHeap()
+	{
+		return values != null;
+	}
+
+	/**
+	 * @return when the values were last read, the series read least recently are spilled first
+	 */
+	long getLastAccessed()
+	{
+		return lastAccessed;
+	}
+
+	/**
+	 * @param spilled
+	 *            the values now read from outside the heap
+	 */
+	void spill(DoubleBuffer spilled)
+	{
+		// the buffer is set first, a reader finding no array finds the buffer
+		buffer = spilled;
+		values = null;
+	}
+
+}
@@ -0,0 +1,226 @@
+package org.geppetto.simulation.manager;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.geppetto.model.values.TimeSeries;
+import org.geppetto.simulation.AppConfig;
+
+/**
+ * Keeps the values of the recorded variables read from the recordings as primitive arrays instead of boxed EMF values. The arrays of all the open experiments share a memory budget,
+ * when it is exceeded the least recently used series are spilled to memory mapped files in the tmp folder so that they are read from outside of the heap. Reading a series only
+ * stamps it with the store's clock, the lock of the store is taken when series are stored, released or spilled.
+ */
+public class TimeSeriesStore
+{
+
+	private static Log logger = LogFactory.getLog(TimeSeriesStore.class);
+
+	private static TimeSeriesStore instance = new TimeSeriesStore(AppConfig.DEFAULT_TIME_SERIES_MEMORY_BUDGET * 1024L * 1024L, Paths.get(System.getProperty("java.io.tmpdir"), "geppetto", "timeSeries"));
+
+	private long memoryBudget;
+
+	private Path spillDirectory;
+
+	private long heapBytes = 0;
+
+	// the series whose values are on the heap
+	private Set<StoredTimeSeries> onHeap = new HashSet<StoredTimeSeries>();
+
+	// orders the accesses to the series
+	private AtomicLong clock = new AtomicLong(0);
+
+	private AtomicLong spilledBytes = new AtomicLong(0);
+
+	/**
+	 * @return
+	 */
+	public static TimeSeriesStore getInstance()
+	{
+		return instance;
+	}
+
+	/**
+	 * @param memoryBudget
+	 *            how many bytes of values are kept on the heap
+	 * @param spillDirectory
+	 *            where the series which don't fit in the budget are written
+	 */
+	public TimeSeriesStore(long memoryBudget, Path spillDirectory)
+	{
+		this.memoryBudget = memoryBudget;
+		this.spillDirectory = spillDirectory;
+	}
+
+	/**
+	 * @param memoryBudget
+	 *            how many bytes of values are kept on the heap
+	 */
+	public synchronized void setMemoryBudget(long memoryBudget)
+	{
+		this.memoryBudget = memoryBudget;
+		evict();
+	}
+
+	/**
+	 * @param timeSeries
+	 * @return a time series with the same values and unit kept by this store, timeSeries can be discarded
+	 */
+	public StoredTimeSeries store(TimeSeries timeSeries)
+	{
+		double[] values = new double[timeSeries.getValue().size()];
+		int i = 0;
+		for(Double value : timeSeries.getValue())
+		{
+			values[i++] = value;
+		}
+		StoredTimeSeries storedTimeSeries = new StoredTimeSeries(this, values, timeSeries.getUnit());
+		synchronized(this)
+		{
+			onHeap.add(storedTimeSeries);
+			heapBytes += sizeOf(values.length);
+			evict();
+		}
+		return storedTimeSeries;
+	}
+
+	/**
+	 * The values are not cleared, a view of the series might still be serialised on another thread, they are only not accounted by the store anymore
+	 * 
+	 * @param storedTimeSeries
+	 *            the store will not be asked for the values anymore
+	 */
+	public synchronized void release(StoredTimeSeries storedTimeSeries)
+	{
+		if(onHeap.remove(storedTimeSeries))
+		{
+			heapBytes -= sizeOf(storedTimeSeries.size());
+		}
+	}
+
+	/**
+	 * @return the bytes of values currently on the heap
+	 */
+	public synchronized long getHeapBytes()
+	{
+		return heapBytes;
+	}
+
+	/**
+	 * @return the bytes of values written to memory mapped files so far
+	 */
+	public long getSpilledBytes()
+	{
+		return spilledBytes.get();
+	}
+
+	/**
+	 * @return the current time of the clock the accesses to the series are stamped with
+	 */
+	long tick()
+	{
+		return clock.incrementAndGet();
+	}
+
+	private void evict()
+	{
+		if(heapBytes <= memoryBudget)
+		{
+			return;
+		}
+		// the series can be read while they are sorted, the order is decided by when they were last read before
+		final Map<StoredTimeSeries, Long> lastAccessed = new HashMap<StoredTimeSeries, Long>();
+		for(StoredTimeSeries storedTimeSeries : onHeap)
+		{
+			lastAccessed.put(storedTimeSeries, storedTimeSeries.getLastAccessed());
+		}
+		List<StoredTimeSeries> leastRecentlyUsed = new ArrayList<StoredTimeSeries>(onHeap);
+		Collections.sort(leastRecentlyUsed, new Comparator<StoredTimeSeries>()
+		{
+			@Override
+			public int compare(StoredTimeSeries s1, StoredTimeSeries s2)
+			{
+				return Long.compare(lastAccessed.get(s1), lastAccessed.get(s2));
+			}
+		});
+		for(StoredTimeSeries storedTimeSeries : leastRecentlyUsed)
+		{
+			if(heapBytes <= memoryBudget)
+			{
+				break;
+			}
+			try
+			{
+				storedTimeSeries.spill(map(storedTimeSeries));
+				onHeap.remove(storedTimeSeries);
+				heapBytes -= sizeOf(storedTimeSeries.size());
+				spilledBytes.addAndGet(sizeOf(storedTimeSeries.size()));
+			}
+			catch(IOException e)
+			{
+				// the values stay on the heap, the budget is exceeded until something else is released
+				logger.warn("Could not spill a time series of " + storedTimeSeries.size() + " values", e);
+				break;
+			}
+		}
+	}
+
+	/**
+	 * @param storedTimeSeries
+	 * @return a buffer mapped to a file with the values of storedTimeSeries
+	 * @throws IOException
+	 */
+	private DoubleBuffer map(StoredTimeSeries storedTimeSeries) throws IOException
+	{
+		Files.createDirectories(spillDirectory);
+		Path file = Files.createTempFile(spillDirectory, "series", ".bin");
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE))
+		{
+			long size = sizeOf(storedTimeSeries.size());
+			ByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0, size).order(ByteOrder.nativeOrder());
+			DoubleBuffer values = buffer.asDoubleBuffer();
+			for(int i = 0; i < storedTimeSeries.size(); i++)
+			{
+				values.put(i, storedTimeSeries.get(i));
+			}
+			return values.asReadOnlyBuffer();
+		}
+		finally
+		{
+			// the mapping outlives the file on most platforms, otherwise the file goes when the server stops
+			try
+			{
+				Files.delete(file);
+			}
+			catch(IOException e)
+			{
+				file.toFile().deleteOnExit();
+			}
+		}
+	}
+
+	private static long sizeOf(int values)
+	{
+		return values * 8L;
+	}
+
+}
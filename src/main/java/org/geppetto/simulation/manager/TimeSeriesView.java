@@ -0,0 +1,77 @@
+package org.geppetto.simulation.manager;
+
+import org.eclipse.emf.common.util.ECollections;
+import org.eclipse.emf.common.util.EList;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.geppetto.model.GeppettoFactory;
+import org.geppetto.model.VariableValue;
+import org.geppetto.model.values.TimeSeries;
+import org.geppetto.model.values.ValuesPackage;
+import org.geppetto.model.values.impl.TimeSeriesImpl;
+
+/**
+ * A read-only time series which shares the values of another one instead of copying them, it is used to send the recorded variables of an experiment without duplicating what was
+ * read from the recording. The view reflects the series it was created from, it is meant to be serialised and thrown away.
+ */
+public class TimeSeriesView extends TimeSeriesImpl
+{
+
+	private EList<Double> values;
+
+	/**
+	 * @param timeSeries
+	 */
+	private TimeSeriesView(TimeSeries timeSeries)
+	{
+		super();
+		values = ECollections.unmodifiableEList(timeSeries.getValue());
+		if(timeSeries.getUnit() != null)
+		{
+			setUnit(EcoreUtil.copy(timeSeries.getUnit()));
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.geppetto.model.values.impl.TimeSeriesImpl#getValue()
+	 */
+	@Override
+	public EList<Double> getValue()
+	{
+		return values;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.geppetto.model.values.impl.TimeSeriesImpl#eIsSet(int)
+	 */
+	@Override
+	public boolean eIsSet(int featureID)
+	{
+		// the inherited value field is never set, the copier and the serializer skip the features which are not set
+		if(featureID == ValuesPackage.TIME_SERIES__VALUE)
+		{
+			return !values.isEmpty();
+		}
+		return super.eIsSet(featureID);
+	}
+
+	/**
+	 * @param variableValue
+	 * @return a variable value with a copy of the pointer and a view of the time series of variableValue, the values which are not time series are copied
+	 */
+	public static VariableValue createView(VariableValue variableValue)
+	{
+		if(!(variableValue.getValue() instanceof TimeSeries))
+		{
+			return EcoreUtil.copy(variableValue);
+		}
+		VariableValue view = GeppettoFactory.eINSTANCE.createVariableValue();
+		view.setPointer(EcoreUtil.copy(variableValue.getPointer()));
+		view.setValue(new TimeSeriesView((TimeSeries) variableValue.getValue()));
+		return view;
+	}
+
+}
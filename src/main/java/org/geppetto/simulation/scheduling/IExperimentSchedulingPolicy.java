@@ -0,0 +1,32 @@
+
+package org.geppetto.simulation.scheduling;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.geppetto.core.data.model.IExperiment;
+import org.geppetto.core.data.model.IUser;
+
+/**
+ * A scheduling policy decides which user the ExperimentRunManager serves next when more than one user has queued experiments. The dispatcher starts at most one experiment at the time and asks the
+ * policy for a new order after each one, so that the policy can account for what was just started.
+ */
+public interface IExperimentSchedulingPolicy
+{
+
+	/**
+	 * @param users
+	 *            the users which have at least one queued experiment
+	 * @return the same users in the order in which they should be served
+	 */
+	List<IUser> orderUsers(Collection<IUser> users);
+
+	/**
+	 * Called by the dispatcher every time an experiment is started
+	 * 
+	 * @param user
+	 * @param experiment
+	 */
+	void experimentStarted(IUser user, IExperiment experiment);
+
+}
@@ -0,0 +1,84 @@
+
+package org.geppetto.simulation.scheduling;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.geppetto.core.data.model.IExperiment;
+import org.geppetto.core.data.model.IUser;
+
+/**
+ * Assigns a priority class to each user group: the users of a group with higher priority are always served before the users of groups with lower priority. Users within the same priority class are
+ * ordered by the wrapped policy.
+ */
+public class PrioritySchedulingPolicy implements IExperimentSchedulingPolicy
+{
+
+	private Map<String, Integer> priorities;
+
+	private IExperimentSchedulingPolicy policy;
+
+	/**
+	 * @param priorities
+	 *            the priority of each user group by group name, groups not in the map have priority 0
+	 * @param policy
+	 *            the policy used to order users within the same priority class
+	 */
+	public PrioritySchedulingPolicy(Map<String, Integer> priorities, IExperimentSchedulingPolicy policy)
+	{
+		this.priorities = new HashMap<String, Integer>(priorities);
+		this.policy = policy;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.geppetto.simulation.scheduling.IExperimentSchedulingPolicy#orderUsers(java.util.Collection)
+	 */
+	@Override
+	public List<IUser> orderUsers(Collection<IUser> users)
+	{
+		List<IUser> ordered = new ArrayList<IUser>(policy.orderUsers(users));
+		// the sort is stable so the order given by the wrapped policy is kept within a priority class
+		Collections.sort(ordered, new Comparator<IUser>()
+		{
+			@Override
+			public int compare(IUser u1, IUser u2)
+			{
+				return Integer.compare(getPriority(u2), getPriority(u1));
+			}
+		});
+		return ordered;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.geppetto.simulation.scheduling.IExperimentSchedulingPolicy#experimentStarted(org.geppetto.core.data.model.IUser, org.geppetto.core.data.model.IExperiment)
+	 */
+	@Override
+	public void experimentStarted(IUser user, IExperiment experiment)
+	{
+		policy.experimentStarted(user, experiment);
+	}
+
+	/**
+	 * @param user
+	 * @return
+	 */
+	private int getPriority(IUser user)
+	{
+		if(user.getUserGroup() == null)
+		{
+			return 0;
+		}
+		Integer priority = priorities.get(user.getUserGroup().getName());
+		return priority == null ? 0 : priority;
+	}
+
+}
@@ -0,0 +1,98 @@
+
+package org.geppetto.simulation.scheduling;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.geppetto.core.data.model.IExperiment;
+import org.geppetto.core.data.model.IUser;
+
+/**
+ * Serves the users in turn: the user who has waited the longest since one of their experiments was started goes first, users who were never served go before everybody else. A user with many queued
+ * experiments therefore gets one run for each run of every other waiting user. A user who has no queued experiments is forgotten once every waiting user has been served after them, from
+ * then on they are served as a new user.
+ */
+public class RoundRobinSchedulingPolicy implements IExperimentSchedulingPolicy
+{
+
+	private Map<IUser, Long> lastServed = new ConcurrentHashMap<IUser, Long>();
+
+	private long turn = 0;
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.geppetto.simulation.scheduling.IExperimentSchedulingPolicy#orderUsers(java.util.Collection)
+	 */
+	@Override
+	public List<IUser> orderUsers(Collection<IUser> users)
+	{
+		forgetIdleUsers(users);
+		List<IUser> ordered = new ArrayList<IUser>(users);
+		Collections.sort(ordered, new Comparator<IUser>()
+		{
+			@Override
+			public int compare(IUser u1, IUser u2)
+			{
+				return Long.compare(getLastServed(u1), getLastServed(u2));
+			}
+		});
+		return ordered;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.geppetto.simulation.scheduling.IExperimentSchedulingPolicy#experimentStarted(org.geppetto.core.data.model.IUser, org.geppetto.core.data.model.IExperiment)
+	 */
+	@Override
+	public synchronized void experimentStarted(IUser user, IExperiment experiment)
+	{
+		lastServed.put(user, ++turn);
+	}
+
+	/**
+	 * Removes the users who have no queued experiments and were served before all the waiting ones, they would go first among the waiting users whether they are remembered or not. The
+	 * idle users who were served more recently are kept, if they were forgotten they could queue again and go before the users who were already waiting.
+	 * 
+	 * @param users
+	 *            the users which have at least one queued experiment
+	 */
+	protected synchronized void forgetIdleUsers(Collection<IUser> users)
+	{
+		Set<IUser> waiting = new HashSet<IUser>(users);
+		long oldest = Long.MAX_VALUE;
+		for(IUser user : waiting)
+		{
+			oldest = Math.min(oldest, getLastServed(user));
+		}
+		Iterator<Map.Entry<IUser, Long>> iterator = lastServed.entrySet().iterator();
+		while(iterator.hasNext())
+		{
+			Map.Entry<IUser, Long> entry = iterator.next();
+			if(entry.getValue() < oldest && !waiting.contains(entry.getKey()))
+			{
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * @param user
+	 * @return the turn in which the user was last served, 0 if never
+	 */
+	protected long getLastServed(IUser user)
+	{
+		Long served = lastServed.get(user);
+		return served == null ? 0 : served;
+	}
+
+}
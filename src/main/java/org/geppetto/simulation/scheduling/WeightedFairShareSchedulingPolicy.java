@@ -0,0 +1,163 @@
+
+package org.geppetto.simulation.scheduling;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.geppetto.core.data.model.IExperiment;
+import org.geppetto.core.data.model.IUser;
+
+/**
+ * Shares the runs between user groups proportionally to their weight, e.g. a group with weight 3 gets three runs for each run of a group with weight 1 when both have queued experiments. Every started
+ * experiment advances the virtual time of its group by 1/weight and the group with the lowest virtual time is served first. Within a group, and between groups with the same virtual time, users are
+ * served round robin. A group is active while its users have queued experiments, a group which becomes active again restarts from the lowest virtual time among the groups which stayed active, if
+ * that's higher than its own, so that it cannot claim the runs it didn't ask for while it was idle.
+ */
+public class WeightedFairShareSchedulingPolicy extends RoundRobinSchedulingPolicy
+{
+
+	private static final String NO_GROUP = "";
+
+	private Map<String, Integer> weights;
+
+	private Map<String, Double> virtualTimes = new HashMap<String, Double>();
+
+	// the groups which had queued experiments the last time the users were ordered
+	private Set<String> activeGroups = new HashSet<String>();
+
+	/**
+	 * @param weights
+	 *            the weight of each user group by group name, groups not in the map have weight 1
+	 */
+	public WeightedFairShareSchedulingPolicy(Map<String, Integer> weights)
+	{
+		this.weights = new HashMap<String, Integer>(weights);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.geppetto.simulation.scheduling.RoundRobinSchedulingPolicy#orderUsers(java.util.Collection)
+	 */
+	@Override
+	public synchronized List<IUser> orderUsers(Collection<IUser> users)
+	{
+		forgetIdleUsers(users);
+		Set<String> groups = new HashSet<String>();
+		for(IUser user : users)
+		{
+			groups.add(getGroup(user));
+		}
+		Double activeTime = null;
+		for(String group : groups)
+		{
+			Double time = virtualTimes.get(group);
+			if(activeGroups.contains(group) && time != null && (activeTime == null || time < activeTime))
+			{
+				activeTime = time;
+			}
+		}
+		final Map<String, Double> times = new HashMap<String, Double>();
+		for(String group : groups)
+		{
+			if(!activeGroups.contains(group))
+			{
+				activate(group, activeTime);
+			}
+			times.put(group, getVirtualTime(group));
+		}
+		activeGroups = groups;
+		List<IUser> ordered = new ArrayList<IUser>(users);
+		Collections.sort(ordered, new Comparator<IUser>()
+		{
+			@Override
+			public int compare(IUser u1, IUser u2)
+			{
+				int byGroup = Double.compare(times.get(getGroup(u1)), times.get(getGroup(u2)));
+				if(byGroup != 0)
+				{
+					return byGroup;
+				}
+				return Long.compare(getLastServed(u1), getLastServed(u2));
+			}
+		});
+		return ordered;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.geppetto.simulation.scheduling.RoundRobinSchedulingPolicy#experimentStarted(org.geppetto.core.data.model.IUser, org.geppetto.core.data.model.IExperiment)
+	 */
+	@Override
+	public synchronized void experimentStarted(IUser user, IExperiment experiment)
+	{
+		super.experimentStarted(user, experiment);
+		String group = getGroup(user);
+		virtualTimes.put(group, getVirtualTime(group) + 1.0 / getWeight(group));
+	}
+
+	/**
+	 * Moves the virtual time of a group which was idle to max(own, activeTime)
+	 * 
+	 * @param group
+	 * @param activeTime
+	 *            the lowest virtual time among the groups which stayed active, null if none did
+	 */
+	private void activate(String group, Double activeTime)
+	{
+		Double time = virtualTimes.get(group);
+		if(activeTime != null && (time == null || time < activeTime))
+		{
+			virtualTimes.put(group, activeTime);
+		}
+	}
+
+	/**
+	 * A group which was never seen starts from the lowest virtual time among the other groups
+	 * 
+	 * @param group
+	 * @return
+	 */
+	private double getVirtualTime(String group)
+	{
+		Double time = virtualTimes.get(group);
+		if(time == null)
+		{
+			time = virtualTimes.isEmpty() ? 0d : Collections.min(virtualTimes.values());
+			virtualTimes.put(group, time);
+		}
+		return time;
+	}
+
+	/**
+	 * @param group
+	 * @return
+	 */
+	private int getWeight(String group)
+	{
+		Integer weight = weights.get(group);
+		return weight == null || weight <= 0 ? 1 : weight;
+	}
+
+	/**
+	 * @param user
+	 * @return the name of the group of the user
+	 */
+	private String getGroup(IUser user)
+	{
+		if(user.getUserGroup() == null || user.getUserGroup().getName() == null)
+		{
+			return NO_GROUP;
+		}
+		return user.getUserGroup().getName();
+	}
+
+}
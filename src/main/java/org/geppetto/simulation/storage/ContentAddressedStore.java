@@ -0,0 +1,233 @@
+package org.geppetto.simulation.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Stores files by their content: a file whose bytes were already stored, by any project or experiment, is not uploaded again and the URL of the existing copy is returned instead. The
+ * index from the SHA-256 of the content to the stored path is kept in memory and appended to an index file so that it survives restarts. The index is trusted, asking the store
+ * costs a request per file. If verification is enabled the store is asked whether it still has a blob before it is reused, and a blob found in the store is reused even if the index
+ * doesn't know it.
+ * <p>
+ * Stored blobs are shared and this class doesn't know who references them, therefore they are never deleted, not even when every project and experiment using them is deleted. Blobs
+ * which are not referenced by any persisted data anymore have to be removed from the bucket offline.
+ */
+public class ContentAddressedStore
+{
+
+	private static Log logger = LogFactory.getLog(ContentAddressedStore.class);
+
+	private static final String BLOBS = "blobs/";
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private static ContentAddressedStore instance = null;
+
+	private IBlobStore store;
+
+	private Path indexFile;
+
+	// content hash -> path in the store
+	private ConcurrentMap<String, String> index = new ConcurrentHashMap<String, String>();
+
+	private volatile boolean verify = false;
+
+	private AtomicLong bytesUploaded = new AtomicLong(0);
+
+	private AtomicLong bytesSaved = new AtomicLong(0);
+
+	private AtomicLong duplicates = new AtomicLong(0);
+
+	/**
+	 * @return the store backed by S3 used by the server
+	 */
+	public static synchronized ContentAddressedStore getInstance()
+	{
+		if(instance == null)
+		{
+			// not in the temporary directory, it could be cleaned while the server is running
+			instance = new ContentAddressedStore(new S3BlobStore(), Paths.get(System.getProperty("user.home"), ".geppetto", "blobIndex"));
+		}
+		return instance;
+	}
+
+	/**
+	 * @param contentAddressedStore
+	 *            replaces the store used by the server, e.g. with one backed by a LocalBlobStore
+	 */
+	public static synchronized void setInstance(ContentAddressedStore contentAddressedStore)
+	{
+		instance = contentAddressedStore;
+	}
+
+	/**
+	 * @param store
+	 * @param indexFile
+	 *            where the index is kept between restarts, null to keep it in memory only
+	 */
+	public ContentAddressedStore(IBlobStore store, Path indexFile)
+	{
+		this.store = store;
+		this.indexFile = indexFile;
+		loadIndex();
+	}
+
+	/**
+	 * @param file
+	 * @return the URL of the stored content, the file is uploaded only if its content is not in the store yet
+	 * @throws IOException
+	 */
+	public URL store(File file) throws IOException
+	{
+		String hash = hash(file);
+		String path = index.get(hash);
+		if(path != null && verify && !store.exists(path))
+		{
+			// removed from the store behind our back
+			logger.warn("Blob " + path + " is in the index but not in the store, it is uploaded again");
+			index.remove(hash, path);
+			path = null;
+		}
+		if(path == null)
+		{
+			// the file name is kept so that the stored blob can still be recognised when downloaded
+			path = BLOBS + hash + "/" + file.getName();
+			if(!verify || !store.exists(path))
+			{
+				// the path is given by the content, a blob stored before the index was lost is overwritten with the same bytes
+				store.save(file, path);
+				bytesUploaded.addAndGet(file.length());
+				if(index.putIfAbsent(hash, path) == null)
+				{
+					appendToIndex(hash, path);
+				}
+				return store.getURL(path);
+			}
+			// stored before the index was lost
+			if(index.putIfAbsent(hash, path) == null)
+			{
+				appendToIndex(hash, path);
+			}
+		}
+		// a reference to the existing copy is all we need
+		duplicates.incrementAndGet();
+		bytesSaved.addAndGet(file.length());
+		logger.info("Content of " + file.getName() + " already stored, " + bytesSaved.get() + " bytes saved so far");
+		return store.getURL(path);
+	}
+
+	/**
+	 * @param verify
+	 *            if true the store is asked whether it has a blob before it is reused and before a file is uploaded, the index is trusted otherwise
+	 */
+	public void setVerify(boolean verify)
+	{
+		this.verify = verify;
+	}
+
+	/**
+	 * @return the bytes which were not uploaded because the same content was already stored
+	 */
+	public long getBytesSaved()
+	{
+		return bytesSaved.get();
+	}
+
+	/**
+	 * @return the bytes which were uploaded
+	 */
+	public long getBytesUploaded()
+	{
+		return bytesUploaded.get();
+	}
+
+	/**
+	 * @return how many files were found to be already stored
+	 */
+	public long getDuplicates()
+	{
+		return duplicates.get();
+	}
+
+	private void loadIndex()
+	{
+		if(indexFile != null && Files.isRegularFile(indexFile))
+		{
+			try
+			{
+				for(String line : Files.readAllLines(indexFile, StandardCharsets.UTF_8))
+				{
+					String[] entry = line.split("\t");
+					if(entry.length == 2)
+					{
+						index.put(entry[0], entry[1]);
+					}
+				}
+				logger.info("Loaded " + index.size() + " stored blobs from " + indexFile);
+			}
+			catch(IOException e)
+			{
+				// the index is only an optimisation, without it the files are uploaded again
+				logger.warn("Could not read the blob index " + indexFile, e);
+			}
+		}
+	}
+
+	private synchronized void appendToIndex(String hash, String path)
+	{
+		if(indexFile != null)
+		{
+			try
+			{
+				Files.createDirectories(indexFile.toAbsolutePath().getParent());
+				Files.write(indexFile, (hash + "\t" + path + "\n").getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+			}
+			catch(IOException e)
+			{
+				logger.warn("Could not update the blob index " + indexFile, e);
+			}
+		}
+	}
+
+	private static String hash(File file) throws IOException
+	{
+		try(FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+			while(in.read(buffer) > 0)
+			{
+				buffer.flip();
+				digest.update(buffer);
+				buffer.clear();
+			}
+			StringBuilder hex = new StringBuilder();
+			for(byte b : digest.digest())
+			{
+				hex.append(String.format("%02x", b));
+			}
+			return hex.toString();
+		}
+		catch(NoSuchAlgorithmException e)
+		{
+			throw new IOException(e);
+		}
+	}
+
+}
@@ -0,0 +1,36 @@
+package org.geppetto.simulation.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+
+/**
+ * Where the artifacts of the projects and experiments (models, scripts, results) are stored once they are persisted
+ */
+public interface IBlobStore
+{
+
+	/**
+	 * @param file
+	 *            the local file to store
+	 * @param path
+	 *            the path of the file in the store
+	 * @throws IOException
+	 */
+	void save(File file, String path) throws IOException;
+
+	/**
+	 * @param path
+	 * @return the URL the file stored at path can be read from
+	 * @throws IOException
+	 */
+	URL getURL(String path) throws IOException;
+
+	/**
+	 * @param path
+	 * @return true if a file is stored at path
+	 * @throws IOException
+	 */
+	boolean exists(String path) throws IOException;
+
+}
@@ -0,0 +1,62 @@
+package org.geppetto.simulation.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Stores the files in a local folder, it stands in for S3 where there is no bucket, e.g. in the tests
+ */
+public class LocalBlobStore implements IBlobStore
+{
+
+	private Path root;
+
+	/**
+	 * @param root
+	 *            the folder the files are stored in
+	 */
+	public LocalBlobStore(Path root)
+	{
+		this.root = root;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.geppetto.simulation.storage.IBlobStore#save(java.io.File, java.lang.String)
+	 */
+	@Override
+	public void save(File file, String path) throws IOException
+	{
+		Path target = root.resolve(path);
+		Files.createDirectories(target.getParent());
+		Files.copy(file.toPath(), target, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.geppetto.simulation.storage.IBlobStore#getURL(java.lang.String)
+	 */
+	@Override
+	public URL getURL(String path) throws IOException
+	{
+		return root.resolve(path).toUri().toURL();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.geppetto.simulation.storage.IBlobStore#exists(java.lang.String)
+	 */
+	@Override
+	public boolean exists(String path) throws IOException
+	{
+		return Files.isRegularFile(root.resolve(path));
+	}
+
+}
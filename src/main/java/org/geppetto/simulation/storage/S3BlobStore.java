@@ -0,0 +1,66 @@
+package org.geppetto.simulation.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+
+import org.geppetto.core.s3.S3Manager;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+/**
+ * Stores the files in the S3 bucket of the server
+ */
+public class S3BlobStore implements IBlobStore
+{
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.geppetto.simulation.storage.IBlobStore#save(java.io.File, java.lang.String)
+	 */
+	@Override
+	public void save(File file, String path) throws IOException
+	{
+		S3Manager.getInstance().saveFileToS3(file, path);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.geppetto.simulation.storage.IBlobStore#getURL(java.lang.String)
+	 */
+	@Override
+	public URL getURL(String path) throws IOException
+	{
+		return S3Manager.getInstance().getURL(path);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.geppetto.simulation.storage.IBlobStore#exists(java.lang.String)
+	 */
+	@Override
+	public boolean exists(String path) throws IOException
+	{
+		try
+		{
+			// listed with the credentials of the server, a HEAD on the public URL fails on private buckets
+			for(S3ObjectSummary summary : S3Manager.getInstance().retrievePathsFromS3(path))
+			{
+				if(summary.getKey().equals(path))
+				{
+					return true;
+				}
+			}
+			return false;
+		}
+		catch(AmazonClientException e)
+		{
+			throw new IOException(e);
+		}
+	}
+
+}
@@ -0,0 +1,183 @@
+package org.geppetto.simulation.utilities;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.geppetto.core.common.GeppettoExecutionException;
+import org.geppetto.model.ExperimentState;
+import org.geppetto.model.VariableValue;
+import org.geppetto.model.values.TimeSeries;
+import org.geppetto.simulation.IExperimentStateConsumer;
+import org.geppetto.simulation.manager.StoredTimeSeries;
+
+/**
+ * Encodes the recorded variables of an experiment state in a compact binary form, as an alternative to the JSON serialisation of the EMF objects for large results. The encoding is a
+ * sequence of little-endian chunks handed to a consumer as soon as each one is filled:
+ * <ul>
+ * <li>STATE: the magic "GXS", the version, experiment id (long), project id (long), number of variables (int)</li>
+ * <li>VARIABLE: instance path and unit (UTF-8 strings prefixed by their length as an int), number of values (int)</li>
+ * <li>VALUES: number of values (int) followed by the values as floats, a variable is followed by as many as needed</li>
+ * <li>END</li>
+ * </ul>
+ * Every chunk starts with its type (byte) and the length of what follows (int). Variables which are not time series are sent as a VARIABLE with no values.
+ */
+public class ExperimentStateEncoder
+{
+
+	public static final byte[] MAGIC = "GXS".getBytes(StandardCharsets.US_ASCII);
+
+	public static final byte VERSION = 1;
+
+	public static final byte STATE = 1;
+
+	public static final byte VARIABLE = 2;
+
+	public static final byte VALUES = 3;
+
+	public static final byte END = 4;
+
+	private static final int DEFAULT_VALUES_PER_CHUNK = 16 * 1024;
+
+	// type and length
+	private static final int CHUNK_HEADER = 5;
+
+	private int valuesPerChunk;
+
+	private ByteBuffer buffer;
+
+	public ExperimentStateEncoder()
+	{
+		this(DEFAULT_VALUES_PER_CHUNK);
+	}
+
+	/**
+	 * @param valuesPerChunk
+	 *            the most values sent in a single VALUES chunk
+	 */
+	public ExperimentStateEncoder(int valuesPerChunk)
+	{
+		this.valuesPerChunk = valuesPerChunk;
+		buffer = ByteBuffer.allocate(CHUNK_HEADER + 4 + valuesPerChunk * 4).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * @param experimentState
+	 * @param consumer
+	 * @throws GeppettoExecutionException
+	 */
+	public void encode(ExperimentState experimentState, IExperimentStateConsumer consumer) throws GeppettoExecutionException
+	{
+		List<VariableValue> recordedVariables = experimentState.getRecordedVariables();
+		start(experimentState.getExperimentId(), experimentState.getProjectId(), recordedVariables.size(), consumer);
+		for(VariableValue variableValue : recordedVariables)
+		{
+			encode(variableValue, consumer);
+		}
+		end(consumer);
+	}
+
+	/**
+	 * Sends the STATE chunk, it has to be followed by as many variables as announced and by {@link #end(IExperimentStateConsumer)}. The variables can be encoded as they are produced
+	 * instead of being collected in an experiment state first.
+	 * 
+	 * @param experimentId
+	 * @param projectId
+	 * @param variables
+	 *            the number of variables which will be encoded
+	 * @param consumer
+	 * @throws GeppettoExecutionException
+	 */
+	public void start(long experimentId, long projectId, int variables, IExperimentStateConsumer consumer) throws GeppettoExecutionException
+	{
+		startChunk(STATE);
+		buffer.put(MAGIC);
+		buffer.put(VERSION);
+		buffer.putLong(experimentId);
+		buffer.putLong(projectId);
+		buffer.putInt(variables);
+		endChunk(consumer);
+	}
+
+	/**
+	 * Sends the VARIABLE chunk of a variable followed by its VALUES chunks
+	 * 
+	 * @param variableValue
+	 * @param consumer
+	 * @throws GeppettoExecutionException
+	 */
+	public void encode(VariableValue variableValue, IExperimentStateConsumer consumer) throws GeppettoExecutionException
+	{
+		TimeSeries timeSeries = variableValue.getValue() instanceof TimeSeries ? (TimeSeries) variableValue.getValue() : null;
+		List<Double> values = timeSeries == null ? null : timeSeries.getValue();
+		int size = values == null ? 0 : values.size();
+
+		byte[] instancePath = (variableValue.getPointer() == null ? "" : variableValue.getPointer().getInstancePath()).getBytes(StandardCharsets.UTF_8);
+		byte[] unit = (timeSeries == null || timeSeries.getUnit() == null || timeSeries.getUnit().getUnit() == null ? "" : timeSeries.getUnit().getUnit())
+				.getBytes(StandardCharsets.UTF_8);
+		if(CHUNK_HEADER + 12 + instancePath.length + unit.length > buffer.capacity())
+		{
+			throw new GeppettoExecutionException("The instance path of " + variableValue.getPointer().getInstancePath() + " doesn't fit in a chunk");
+		}
+		startChunk(VARIABLE);
+		buffer.putInt(instancePath.length);
+		buffer.put(instancePath);
+		buffer.putInt(unit.length);
+		buffer.put(unit);
+		buffer.putInt(size);
+		endChunk(consumer);
+
+		for(int start = 0; start < size; start += valuesPerChunk)
+		{
+			int end = Math.min(start + valuesPerChunk, size);
+			startChunk(VALUES);
+			buffer.putInt(end - start);
+			if(timeSeries instanceof StoredTimeSeries)
+			{
+				// read straight from the store without boxing
+				StoredTimeSeries storedTimeSeries = (StoredTimeSeries) timeSeries;
+				for(int i = start; i < end; i++)
+				{
+					buffer.putFloat((float) storedTimeSeries.get(i));
+				}
+			}
+			else
+			{
+				for(int i = start; i < end; i++)
+				{
+					buffer.putFloat(values.get(i).floatValue());
+				}
+			}
+			endChunk(consumer);
+		}
+	}
+
+	/**
+	 * Sends the END chunk
+	 * 
+	 * @param consumer
+	 * @throws GeppettoExecutionException
+	 */
+	public void end(IExperimentStateConsumer consumer) throws GeppettoExecutionException
+	{
+		startChunk(END);
+		endChunk(consumer);
+	}
+
+	private void startChunk(byte type)
+	{
+		buffer.clear();
+		buffer.put(type);
+		// the length is written once the chunk is complete
+		buffer.putInt(0);
+	}
+
+	private void endChunk(IExperimentStateConsumer consumer) throws GeppettoExecutionException
+	{
+		buffer.putInt(1, buffer.position() - CHUNK_HEADER);
+		buffer.flip();
+		consumer.consume(buffer);
+	}
+
+}
@@ -0,0 +1,158 @@
+package org.geppetto.simulation.utilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Zips files straight into the final zip file. Unlike the core Zipper the files are not copied to a staging folder first, every file is read once through its channel and written
+ * compressed to the zip. Files which are already compressed, and all the files when the compression level is {@link #STORE}, are stored as they are.
+ */
+public class StreamingZipper
+{
+
+	private static Log logger = LogFactory.getLog(StreamingZipper.class);
+
+	/**
+	 * Compression level which stores the files without compressing them
+	 */
+	public static final int STORE = 0;
+
+	// compressing these again would only cost time
+	private static final Set<String> COMPRESSED_EXTENSIONS = new HashSet<String>(Arrays.asList("zip", "gz", "tgz", "bz2", "xz", "7z", "jar", "png", "jpg", "jpeg", "gif", "mp4"));
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private Path zipFile;
+
+	private int compressionLevel;
+
+	private List<File> files = new ArrayList<File>();
+
+	/**
+	 * @param zipPath
+	 *            where the zip is written
+	 * @param compressionLevel
+	 *            from {@link #STORE} to {@link Deflater#BEST_COMPRESSION}, or {@link Deflater#DEFAULT_COMPRESSION}
+	 */
+	public StreamingZipper(String zipPath, int compressionLevel)
+	{
+		this.zipFile = Paths.get(zipPath);
+		this.compressionLevel = compressionLevel;
+	}
+
+	/**
+	 * @param file
+	 */
+	public void addToZip(File file)
+	{
+		files.add(file);
+	}
+
+	/**
+	 * @return the zip file
+	 * @throws IOException
+	 */
+	public Path processAddedFilesAndZip() throws IOException
+	{
+		long start = System.currentTimeMillis();
+		if(zipFile.toAbsolutePath().getParent() != null)
+		{
+			Files.createDirectories(zipFile.toAbsolutePath().getParent());
+		}
+		Set<String> names = new HashSet<String>();
+		try(FileChannel out = FileChannel.open(zipFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+				ZipOutputStream zip = new ZipOutputStream(Channels.newOutputStream(out)))
+		{
+			zip.setLevel(compressionLevel);
+			WritableByteChannel zipChannel = Channels.newChannel(zip);
+			for(File file : files)
+			{
+				ZipEntry entry = new ZipEntry(uniqueName(file.getName(), names));
+				entry.setTime(file.lastModified());
+				try(FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+				{
+					if(isStored(file))
+					{
+						// stored entries need their size and checksum before the data
+						entry.setMethod(ZipEntry.STORED);
+						entry.setSize(in.size());
+						entry.setCompressedSize(in.size());
+						entry.setCrc(crc(in));
+					}
+					zip.putNextEntry(entry);
+					long position = 0;
+					long size = in.size();
+					while(position < size)
+					{
+						position += in.transferTo(position, size - position, zipChannel);
+					}
+					zip.closeEntry();
+				}
+			}
+			zip.finish();
+		}
+		logger.info("Zipped " + files.size() + " files into " + zipFile + " in " + (System.currentTimeMillis() - start) + " ms");
+		return zipFile;
+	}
+
+	/**
+	 * @param file
+	 * @return true if the file is stored in the zip without compressing it
+	 */
+	private boolean isStored(File file)
+	{
+		if(compressionLevel == STORE)
+		{
+			return true;
+		}
+		String name = file.getName();
+		int dot = name.lastIndexOf('.');
+		return dot >= 0 && COMPRESSED_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase());
+	}
+
+	private static long crc(FileChannel in) throws IOException
+	{
+		CRC32 crc = new CRC32();
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		long position = 0;
+		int read;
+		while((read = in.read(buffer, position)) > 0)
+		{
+			crc.update(buffer.array(), 0, read);
+			position += read;
+			buffer.clear();
+		}
+		return crc.getValue();
+	}
+
+	private static String uniqueName(String name, Set<String> names)
+	{
+		String unique = name;
+		for(int i = 1; !names.add(unique); i++)
+		{
+			unique = i + "_" + name;
+		}
+		return unique;
+	}
+
+}
@@ -0,0 +1,69 @@
+package org.geppetto.simulation.utilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Tells whether the content at a URL changed without reading it, used by the cache of the parsed models
+ */
+public class URLValidator
+{
+
+	private static Log logger = LogFactory.getLog(URLValidator.class);
+
+	/**
+	 * @param url
+	 * @return something that changes when the content at url changes: the ETag or last modified date given by the server, the modification time and length of a local file. null if
+	 *         there is no cheap way to tell
+	 */
+	public static String getValidator(URL url)
+	{
+		try
+		{
+			if("file".equals(url.getProtocol()))
+			{
+				File file = new File(url.toURI());
+				return file.isFile() ? file.lastModified() + ":" + file.length() : null;
+			}
+			URLConnection connection = url.openConnection();
+			if(connection instanceof HttpURLConnection)
+			{
+				HttpURLConnection httpConnection = (HttpURLConnection) connection;
+				httpConnection.setRequestMethod("HEAD");
+				try
+				{
+					if(httpConnection.getResponseCode() != HttpURLConnection.HTTP_OK)
+					{
+						return null;
+					}
+					String eTag = httpConnection.getHeaderField("ETag");
+					if(eTag != null)
+					{
+						return eTag;
+					}
+					long lastModified = httpConnection.getLastModified();
+					return lastModified > 0 ? lastModified + ":" + httpConnection.getContentLengthLong() : null;
+				}
+				finally
+				{
+					httpConnection.disconnect();
+				}
+			}
+			return null;
+		}
+		catch(IOException | URISyntaxException | IllegalArgumentException e)
+		{
+			// the content is read as if it wasn't cached, reading it will report the problem
+			logger.warn("Could not validate the content at " + url, e);
+			return null;
+		}
+	}
+
+}
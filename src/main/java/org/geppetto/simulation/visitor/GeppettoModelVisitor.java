@@ -9,12 +9,14 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.geppetto.core.common.GeppettoExecutionException;
 import org.geppetto.core.common.GeppettoInitializationException;
 import org.geppetto.core.data.model.IGeppettoProject;
 import org.geppetto.core.manager.Scope;
@@ -59,7 +61,11 @@ public class GeppettoModelVisitor extends GeppettoSwitch<Object>{
 			if(!library.getId().equals(SharedLibraryManager.getSharedCommonLibrary().getId()))
 			{
 				IModelInterpreter modelInterpreter = runtimeProject.getModelInterpreter(library);
-				List<URL> dependentModels = modelInterpreter.getDependentModels();		
+				List<URL> dependentModels;
+				synchronized(modelInterpreter)
+				{
+					dependentModels = new ArrayList<URL>(modelInterpreter.getDependentModels());
+				}
 				for(URL url : dependentModels)
 				{
 					File urlFile = new File(url.getFile());
@@ -102,7 +108,7 @@ public class GeppettoModelVisitor extends GeppettoSwitch<Object>{
 				}
 			}
 		}
-		catch(URISyntaxException | IOException | GeppettoInitializationException e)
+		catch(URISyntaxException | IOException | GeppettoInitializationException | GeppettoExecutionException e)
 		{
 			return new GeppettoVisitingException(e);
 		} 
@@ -47,27 +47,11 @@ public class ImportTypesVisitor extends TypesSwitch<Object>
 			try
 			{
 
-				Type importedType = null;
 				if(type.eContainingFeature().getFeatureID() == GeppettoPackage.GEPPETTO_LIBRARY__TYPES)
 				{
 					// this import type is inside a library
 					GeppettoLibrary library = (GeppettoLibrary) type.eContainer();
-					IModelInterpreter modelInterpreter = modelInterpreters.get(library);
-					URL url = null;
-					if(type.getUrl() != null)
-					{
-						url = URLReader.getURL(type.getUrl(), baseURL);
-					}
-					importedType = modelInterpreter.importType(url, type.getId(), library, geppettoModelAccess);
-
-					if(this.gatherDefaultView && modelInterpreter.isSupported(GeppettoFeature.DEFAULT_VIEW_CUSTOMISER_FEATURE))
-					{
-						viewCustomisations
-								.add(((IDefaultViewCustomiserFeature) modelInterpreter.getFeature(GeppettoFeature.DEFAULT_VIEW_CUSTOMISER_FEATURE)).getDefaultViewCustomisation(importedType));
-					}
-
-					geppettoModelAccess.swapType(type, importedType, library);
-
+					swapType(type, importType(type, library), library);
 				}
 				else if(type.eContainingFeature().getFeatureID() == VariablesPackage.VARIABLE__ANONYMOUS_TYPES)
 				{
@@ -90,6 +74,47 @@ public class ImportTypesVisitor extends TypesSwitch<Object>
 		return super.caseImportType(type);
 	}
 
+	/**
+	 * @param type
+	 * @param library
+	 * @return the type imported by the model interpreter of library
+	 * @throws IOException
+	 * @throws ModelInterpreterException
+	 */
+	private Type importType(ImportType type, GeppettoLibrary library) throws IOException, ModelInterpreterException
+	{
+		IModelInterpreter modelInterpreter = modelInterpreters.get(library);
+		URL url = null;
+		if(type.getUrl() != null)
+		{
+			url = URLReader.getURL(type.getUrl(), baseURL);
+		}
+		synchronized(modelInterpreter)
+		{
+			return modelInterpreter.importType(url, type.getId(), library, geppettoModelAccess);
+		}
+	}
+
+	/**
+	 * @param type
+	 * @param importedType
+	 * @param library
+	 * @throws ModelInterpreterException
+	 */
+	private void swapType(ImportType type, Type importedType, GeppettoLibrary library) throws ModelInterpreterException
+	{
+		IModelInterpreter modelInterpreter = modelInterpreters.get(library);
+		if(this.gatherDefaultView && modelInterpreter.isSupported(GeppettoFeature.DEFAULT_VIEW_CUSTOMISER_FEATURE))
+		{
+			synchronized(modelInterpreter)
+			{
+				viewCustomisations.add(((IDefaultViewCustomiserFeature) modelInterpreter.getFeature(GeppettoFeature.DEFAULT_VIEW_CUSTOMISER_FEATURE)).getDefaultViewCustomisation(importedType));
+			}
+		}
+
+		geppettoModelAccess.swapType(type, importedType, library);
+	}
+
 	/**
 	 * @param modelInterpreters
 	 * @param commonLibraryAccess
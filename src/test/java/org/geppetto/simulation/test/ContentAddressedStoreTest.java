@@ -0,0 +1,110 @@
+package org.geppetto.simulation.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.geppetto.simulation.storage.ContentAddressedStore;
+import org.geppetto.simulation.storage.LocalBlobStore;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks that the content addressed store only uploads the bytes it doesn't have yet, using a local folder in place of S3
+ */
+public class ContentAddressedStoreTest
+{
+
+	private static Path root;
+
+	private static File recording;
+
+	private static File clonedRecording;
+
+	private static File otherRecording;
+
+	@BeforeClass
+	public static void setUp() throws IOException
+	{
+		root = Files.createTempDirectory("blobs");
+		Path input = Files.createTempDirectory("input");
+		recording = Files.write(input.resolve("results.h5"), "recorded values".getBytes(StandardCharsets.UTF_8)).toFile();
+		clonedRecording = Files.write(input.resolve("cloned.h5"), "recorded values".getBytes(StandardCharsets.UTF_8)).toFile();
+		otherRecording = Files.write(input.resolve("other.h5"), "other values".getBytes(StandardCharsets.UTF_8)).toFile();
+	}
+
+	@Test
+	public void testDuplicatesAreNotUploaded() throws IOException
+	{
+		ContentAddressedStore store = new ContentAddressedStore(new LocalBlobStore(root.resolve("memory")), null);
+		URL first = store.store(recording);
+		URL second = store.store(clonedRecording);
+		URL other = store.store(otherRecording);
+
+		Assert.assertEquals(first, second);
+		Assert.assertNotEquals(first, other);
+		Assert.assertEquals(1, store.getDuplicates());
+		Assert.assertEquals(clonedRecording.length(), store.getBytesSaved());
+		Assert.assertEquals(recording.length() + otherRecording.length(), store.getBytesUploaded());
+		Assert.assertEquals("recorded values", new String(Files.readAllBytes(new File(first.getFile()).toPath()), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testIndexSurvivesRestart() throws IOException
+	{
+		Path index = root.resolve("index");
+		LocalBlobStore blobStore = new LocalBlobStore(root.resolve("persisted"));
+		URL stored = new ContentAddressedStore(blobStore, index).store(recording);
+
+		ContentAddressedStore restarted = new ContentAddressedStore(blobStore, index);
+		Assert.assertEquals(stored, restarted.store(clonedRecording));
+		Assert.assertEquals(0, restarted.getBytesUploaded());
+		Assert.assertEquals(1, restarted.getDuplicates());
+	}
+
+	@Test
+	public void testIndexIsVerifiedAgainstTheStore() throws IOException
+	{
+		Path blobs = root.resolve("verified");
+		LocalBlobStore blobStore = new LocalBlobStore(blobs);
+		URL stored = new ContentAddressedStore(blobStore, null).store(recording);
+
+		// the index was lost, the blob is still found in the store
+		ContentAddressedStore withoutIndex = new ContentAddressedStore(blobStore, null);
+		withoutIndex.setVerify(true);
+		Assert.assertEquals(stored, withoutIndex.store(recording));
+		Assert.assertEquals(0, withoutIndex.getBytesUploaded());
+
+		// the blob was deleted from the store, the index is not trusted
+		Files.delete(new File(stored.getFile()).toPath());
+		URL uploaded = withoutIndex.store(clonedRecording);
+		Assert.assertEquals(clonedRecording.length(), withoutIndex.getBytesUploaded());
+		Assert.assertEquals("recorded values", new String(Files.readAllBytes(new File(uploaded.getFile()).toPath()), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testIndexIsTrusted() throws IOException
+	{
+		final AtomicInteger checks = new AtomicInteger(0);
+		LocalBlobStore blobStore = new LocalBlobStore(root.resolve("trusted"))
+		{
+			@Override
+			public boolean exists(String path) throws IOException
+			{
+				checks.incrementAndGet();
+				return super.exists(path);
+			}
+		};
+		ContentAddressedStore store = new ContentAddressedStore(blobStore, null);
+		URL stored = store.store(recording);
+		Assert.assertEquals(stored, store.store(clonedRecording));
+		Assert.assertEquals(recording.length(), store.getBytesUploaded());
+		Assert.assertEquals(0, checks.get());
+	}
+
+}
@@ -0,0 +1,89 @@
+package org.geppetto.simulation.test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.geppetto.core.common.GeppettoExecutionException;
+import org.geppetto.model.ExperimentState;
+import org.geppetto.model.GeppettoFactory;
+import org.geppetto.model.VariableValue;
+import org.geppetto.model.values.TimeSeries;
+import org.geppetto.model.values.ValuesFactory;
+import org.geppetto.simulation.IExperimentStateConsumer;
+import org.geppetto.simulation.utilities.ExperimentStateEncoder;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks that the experiment state encoder splits the values of a variable in chunks
+ *
+ */
+public class ExperimentStateEncoderTest
+{
+
+	@Test
+	public void testChunks() throws GeppettoExecutionException
+	{
+		ExperimentState experimentState = GeppettoFactory.eINSTANCE.createExperimentState();
+		experimentState.setExperimentId(3);
+		experimentState.setProjectId(7);
+		TimeSeries timeSeries = ValuesFactory.eINSTANCE.createTimeSeries();
+		for(int i = 0; i < 5; i++)
+		{
+			timeSeries.getValue().add(i / 2d);
+		}
+		VariableValue variableValue = GeppettoFactory.eINSTANCE.createVariableValue();
+		variableValue.setValue(timeSeries);
+		experimentState.getRecordedVariables().add(variableValue);
+
+		final List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+		new ExperimentStateEncoder(2).encode(experimentState, new IExperimentStateConsumer()
+		{
+			@Override
+			public void consume(ByteBuffer chunk)
+			{
+				// the buffer is reused by the encoder
+				ByteBuffer copy = ByteBuffer.allocate(chunk.remaining()).order(ByteOrder.LITTLE_ENDIAN);
+				copy.put(chunk).flip();
+				chunks.add(copy);
+			}
+		});
+
+		// state, variable, three chunks of values and the end
+		Assert.assertEquals(6, chunks.size());
+
+		ByteBuffer state = chunks.get(0);
+		Assert.assertEquals(ExperimentStateEncoder.STATE, state.get());
+		Assert.assertEquals(state.remaining() - 4, state.getInt());
+		state.position(state.position() + ExperimentStateEncoder.MAGIC.length + 1);
+		Assert.assertEquals(3, state.getLong());
+		Assert.assertEquals(7, state.getLong());
+		Assert.assertEquals(1, state.getInt());
+
+		ByteBuffer variable = chunks.get(1);
+		Assert.assertEquals(ExperimentStateEncoder.VARIABLE, variable.get());
+		variable.getInt();
+		Assert.assertEquals(0, variable.getInt());
+		Assert.assertEquals(0, variable.getInt());
+		Assert.assertEquals(5, variable.getInt());
+
+		List<Float> values = new ArrayList<Float>();
+		for(ByteBuffer chunk : chunks.subList(2, 5))
+		{
+			Assert.assertEquals(ExperimentStateEncoder.VALUES, chunk.get());
+			chunk.getInt();
+			int count = chunk.getInt();
+			for(int i = 0; i < count; i++)
+			{
+				values.add(chunk.getFloat());
+			}
+		}
+		Assert.assertEquals(5, values.size());
+		Assert.assertEquals(2f, values.get(4), 0);
+
+		Assert.assertEquals(ExperimentStateEncoder.END, chunks.get(5).get());
+	}
+
+}
@@ -0,0 +1,70 @@
+package org.geppetto.simulation.test;
+
+import java.util.Collections;
+
+import org.geppetto.model.ExperimentState;
+import org.geppetto.model.GeppettoFactory;
+import org.geppetto.model.VariableValue;
+import org.geppetto.model.values.TimeSeries;
+import org.geppetto.model.values.ValuesFactory;
+import org.geppetto.simulation.manager.ExperimentStateQuery;
+import org.geppetto.simulation.manager.ExperimentStateQuery.Aggregation;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks the reductions an experiment state query applies to the recorded variables
+ *
+ */
+public class ExperimentStateQueryTest
+{
+
+	private static VariableValue createVariableValue(double... values)
+	{
+		TimeSeries timeSeries = ValuesFactory.eINSTANCE.createTimeSeries();
+		for(double value : values)
+		{
+			timeSeries.getValue().add(value);
+		}
+		VariableValue variableValue = GeppettoFactory.eINSTANCE.createVariableValue();
+		variableValue.setValue(timeSeries);
+		return variableValue;
+	}
+
+	private static TimeSeries query(ExperimentStateQuery query, VariableValue variableValue)
+	{
+		ExperimentState experimentState = query.apply(GeppettoFactory.eINSTANCE.createExperimentState(), Collections.singletonList(variableValue));
+		Assert.assertEquals(1, experimentState.getRecordedVariables().size());
+		return (TimeSeries) experimentState.getRecordedVariables().get(0).getValue();
+	}
+
+	@Test
+	public void testStride()
+	{
+		ExperimentStateQuery query = new ExperimentStateQuery();
+		query.setStride(3);
+		Assert.assertArrayEquals(new Object[] { 1d, 4d, 7d }, query(query, createVariableValue(1, 2, 3, 4, 5, 6, 7)).getValue().toArray());
+	}
+
+	@Test
+	public void testMean()
+	{
+		ExperimentStateQuery query = new ExperimentStateQuery();
+		query.setMaxPoints(2);
+		query.setAggregation(Aggregation.MEAN);
+		Assert.assertArrayEquals(new Object[] { 2d, 5d }, query(query, createVariableValue(1, 2, 3, 4, 5, 6)).getValue().toArray());
+	}
+
+	@Test
+	public void testMinMax()
+	{
+		ExperimentStateQuery query = new ExperimentStateQuery();
+		query.setMaxPoints(4);
+		query.setAggregation(Aggregation.MIN_MAX);
+		VariableValue variableValue = createVariableValue(0, 5, -1, 2, 9, -3, 1);
+		// two buckets of four steps, the envelope keeps the order in which the values were recorded
+		Assert.assertArrayEquals(new Object[] { 5d, -1d, 9d, -3d }, query(query, variableValue).getValue().toArray());
+		Assert.assertEquals(7, ((TimeSeries) variableValue.getValue()).getValue().size());
+	}
+
+}
@@ -36,6 +36,7 @@ import org.geppetto.model.VariableValue;
 import org.geppetto.model.types.Type;
 import org.geppetto.model.values.Quantity;
 import org.geppetto.model.values.TimeSeries;
+import org.geppetto.simulation.manager.ExperimentRun;
 import org.geppetto.simulation.manager.ExperimentRunManager;
 import org.geppetto.simulation.manager.GeppettoManager;
 import org.geppetto.simulation.manager.RuntimeExperiment;
@@ -173,9 +174,59 @@ public class GeppettoManagerTest
 		GeppettoLibrary testLibrary = geppettoModel.getLibraries().get(0);
 		Assert.assertEquals("testLibrary", testLibrary.getId());
 		Assert.assertEquals("testLibrary", testLibrary.getName());
+		// the library has no import types left, its model interpreter is still found
+		Assert.assertNotNull(runtimeProject.getModelInterpreter(testLibrary));
 
 	}
 
+	/**
+	 * Test method for {@link org.geppetto.simulation.manager.ExperimentRun#getPartialExperimentState(java.util.List, int)}.
+	 *
+	 * @throws GeppettoExecutionException
+	 */
+	@Test
+	public void test04aPartialExperimentState() throws GeppettoExecutionException
+	{
+		IExperiment experiment = geppettoProject.getExperiments().get(0);
+		ExperimentRun experimentRun = new ExperimentRun(experiment, runtimeProject, null, null, null);
+		IAspectConfiguration aspectConfiguration = experiment.getAspectConfigurations().get(0);
+
+		Map<String, double[]> values = new HashMap<String, double[]>();
+		values.put("time(StateVariable)", new double[] { 0.1, 0.2 });
+		// not the canonical instance path
+		values.put("testVar.a", new double[] { 1, 2 });
+		experimentRun.stepsProcessed(aspectConfiguration, 2, values);
+		values.put("time(StateVariable)", new double[] { 0.3 });
+		values.put("testVar.a", new double[] { 3 });
+		experimentRun.stepsProcessed(aspectConfiguration, 1, values);
+
+		ExperimentState experimentState = experimentRun.getPartialExperimentState(null, 0);
+		List<VariableValue> recorded = experimentState.getRecordedVariables();
+		Assert.assertEquals(2, recorded.size());
+		Assert.assertEquals("time(StateVariable)", recorded.get(0).getPointer().getInstancePath());
+		Assert.assertArrayEquals(new Double[] { 0.1, 0.2, 0.3 }, ((TimeSeries) recorded.get(0).getValue()).getValue().toArray());
+		Assert.assertEquals("testVar(testType).a(StateVariable)", recorded.get(1).getPointer().getInstancePath());
+		Assert.assertArrayEquals(new Double[] { 1d, 2d, 3d }, ((TimeSeries) recorded.get(1).getValue()).getValue().toArray());
+
+		// the variable is found by its canonical instance path, only the values from the given step on are returned
+		List<String> variables = new ArrayList<String>();
+		variables.add("testVar(testType).a(StateVariable)");
+		experimentState = experimentRun.getPartialExperimentState(variables, 2);
+		recorded = experimentState.getRecordedVariables();
+		Assert.assertEquals(2, recorded.size());
+		Assert.assertEquals("testVar(testType).a(StateVariable)", recorded.get(0).getPointer().getInstancePath());
+		Assert.assertArrayEquals(new Double[] { 3d }, ((TimeSeries) recorded.get(0).getValue()).getValue().toArray());
+		Assert.assertArrayEquals(new Double[] { 0.3 }, ((TimeSeries) recorded.get(1).getValue()).getValue().toArray());
+
+		// a variable nothing was pushed for is left out
+		variables.clear();
+		variables.add("testVar.b");
+		Assert.assertEquals(1, experimentRun.getPartialExperimentState(variables, 0).getRecordedVariables().size());
+
+		experimentRun.release();
+		Assert.assertTrue(experimentRun.getPartialExperimentState(null, 0).getRecordedVariables().isEmpty());
+	}
+
 	/**
 	 * Test method for {@link org.geppetto.simulation.manager.GeppettoManager#loadExperiment(java.lang.String, org.geppetto.core.data.model.IExperiment)}.
 	 * 
@@ -409,6 +460,8 @@ public class GeppettoManagerTest
 		IAspectConfiguration ac = addedExperiment.getAspectConfigurations().get(0);
 		Assert.assertEquals("testVar(testType)", ac.getInstance());
 		Assert.assertNotNull(ac.getSimulatorConfiguration());
+		// queued experiments are dispatched immediately, we hold them so that we can cancel this one
+		ExperimentRunManager.getInstance().pauseDispatching();
 		manager.runExperiment("1", addedExperiment);
 		Assert.assertEquals(3, addedExperiment.getAspectConfigurations().get(0).getWatchedVariables().size());
 	}
@@ -463,6 +516,7 @@ public class GeppettoManagerTest
 		IAspectConfiguration ac = addedExperiment.getAspectConfigurations().get(0);
 		Assert.assertEquals("testVar(testType)", ac.getInstance());
 		Assert.assertNotNull(ac.getSimulatorConfiguration());
+		ExperimentRunManager.getInstance().resumeDispatching();
 		manager.runExperiment("1", addedExperiment);
 		Assert.assertEquals(3, addedExperiment.getAspectConfigurations().get(0).getWatchedVariables().size());
 		Thread.sleep(3000);
@@ -531,6 +585,45 @@ public class GeppettoManagerTest
 
 	}
 
+	/**
+	 * Test method for {@link org.geppetto.simulation.manager.GeppettoManager#getExperimentState(java.lang.String, org.geppetto.core.data.model.IExperiment, java.util.List)}, checks
+	 * that the recorded variables are found by their instance path with or without types.
+	 *
+	 * @throws GeppettoExecutionException
+	 * @throws IOException
+	 * @throws NumberFormatException
+	 * @throws GeppettoAccessException
+	 */
+	@Test
+	public void test22aPlayExperimentVariables() throws GeppettoExecutionException, NumberFormatException, IOException, GeppettoAccessException
+	{
+		List<String> variables = new ArrayList<String>();
+		variables.add("testVar(testType).b(StateVariable)");
+		variables.add("testVar.c");
+		// requested twice, returned once
+		variables.add("testVar.b");
+		ExperimentState experimentState = manager.getExperimentState("1", addedExperiment, variables);
+		List<VariableValue> recorded = experimentState.getRecordedVariables();
+		Assert.assertEquals(3, recorded.size());
+		VariableValue time = recorded.get(0);
+		VariableValue b = recorded.get(1);
+		VariableValue c = recorded.get(2);
+		Assert.assertEquals("time(StateVariable)", time.getPointer().getInstancePath());
+		Assert.assertEquals("testVar(testType).b(StateVariable)", b.getPointer().getInstancePath());
+		Assert.assertEquals("testVar(testType).c(StateVariable)", c.getPointer().getInstancePath());
+		checkValues(time, 0);
+		checkValues(b, 3);
+		checkValues(c, 1);
+
+		// a variable of the model which is not recorded is left out
+		variables.clear();
+		variables.add("testVar(testType).p2(Parameter)");
+		experimentState = manager.getExperimentState("1", addedExperiment, variables);
+		recorded = experimentState.getRecordedVariables();
+		Assert.assertEquals(1, recorded.size());
+		Assert.assertEquals("time(StateVariable)", recorded.get(0).getPointer().getInstancePath());
+	}
+
 	/**
 	 * @param variable
 	 * @param columnIndexInTheDATFile
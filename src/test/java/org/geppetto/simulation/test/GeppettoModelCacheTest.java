@@ -0,0 +1,54 @@
+package org.geppetto.simulation.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.geppetto.model.GeppettoModel;
+import org.geppetto.simulation.manager.GeppettoModelCache;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks that the model of a project is parsed again only when its file changes
+ *
+ */
+public class GeppettoModelCacheTest
+{
+
+	@Test
+	public void testModelIsParsedOnlyWhenChanged() throws Exception
+	{
+		File model = File.createTempFile("GeppettoModel", ".xmi");
+		Files.copy(Paths.get(GeppettoModelCacheTest.class.getResource("/test/hhcell/GeppettoModel.xmi").toURI()), model.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		URL url = model.toURI().toURL();
+		GeppettoModelCache cache = GeppettoModelCache.getInstance();
+		long misses = cache.getMisses();
+		long hits = cache.getHits();
+
+		GeppettoModel first = cache.getGeppettoModel(url);
+		GeppettoModel second = cache.getGeppettoModel(url);
+		Assert.assertEquals(misses + 1, cache.getMisses());
+		Assert.assertEquals(hits + 1, cache.getHits());
+		// every project gets its own model
+		Assert.assertNotSame(first, second);
+		Assert.assertTrue(EcoreUtil.equals(first, second));
+
+		touch(model);
+		cache.getGeppettoModel(url);
+		Assert.assertEquals(misses + 2, cache.getMisses());
+	}
+
+	private static void touch(File file) throws IOException
+	{
+		if(!file.setLastModified(file.lastModified() + 2000))
+		{
+			throw new IOException("Could not change the modification time of " + file);
+		}
+	}
+
+}
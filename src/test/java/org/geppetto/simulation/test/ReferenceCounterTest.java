@@ -0,0 +1,133 @@
+package org.geppetto.simulation.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.geppetto.core.common.GeppettoExecutionException;
+import org.geppetto.simulation.manager.ReferenceCounter;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Hammers the ReferenceCounter used by the ExperimentRunManager from many threads
+ */
+public class ReferenceCounterTest
+{
+
+	private static final int THREADS = 16;
+
+	private static final int ITERATIONS = 20000;
+
+	@Test
+	public void testConcurrentIncrementDecrement() throws Exception
+	{
+		final ReferenceCounter<String> counter = new ReferenceCounter<String>();
+		// true while the release action is running, nobody holding a reference should ever observe it
+		final AtomicBoolean releasing = new AtomicBoolean(false);
+		final AtomicInteger releases = new AtomicInteger(0);
+		final AtomicInteger overlaps = new AtomicInteger(0);
+		final ReferenceCounter.ReleaseAction<String> action = new ReferenceCounter.ReleaseAction<String>()
+		{
+			@Override
+			public void release(String key) throws GeppettoExecutionException
+			{
+				releasing.set(true);
+				releases.incrementAndGet();
+				Thread.yield();
+				releasing.set(false);
+			}
+		};
+
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		List<Future<Void>> futures = new ArrayList<Future<Void>>();
+		for(int t = 0; t < THREADS; t++)
+		{
+			futures.add(executor.submit(new Callable<Void>()
+			{
+				@Override
+				public Void call() throws Exception
+				{
+					start.await();
+					for(int i = 0; i < ITERATIONS; i++)
+					{
+						counter.increment("project");
+						if(releasing.get())
+						{
+							overlaps.incrementAndGet();
+						}
+						counter.decrement("project", action);
+					}
+					return null;
+				}
+			}));
+		}
+		start.countDown();
+		for(Future<Void> future : futures)
+		{
+			future.get();
+		}
+		executor.shutdown();
+		Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+		Assert.assertEquals(0, counter.get("project"));
+		Assert.assertEquals(0, overlaps.get());
+		Assert.assertTrue(releases.get() > 0);
+	}
+
+	@Test
+	public void testNoLostUpdates() throws Exception
+	{
+		final ReferenceCounter<String> counter = new ReferenceCounter<String>();
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		List<Future<Void>> futures = new ArrayList<Future<Void>>();
+		for(int t = 0; t < THREADS; t++)
+		{
+			futures.add(executor.submit(new Callable<Void>()
+			{
+				@Override
+				public Void call() throws Exception
+				{
+					start.await();
+					for(int i = 0; i < ITERATIONS; i++)
+					{
+						counter.increment("project");
+					}
+					return null;
+				}
+			}));
+		}
+		start.countDown();
+		for(Future<Void> future : futures)
+		{
+			future.get();
+		}
+		executor.shutdown();
+		Assert.assertEquals(THREADS * ITERATIONS, counter.get("project"));
+
+		final AtomicInteger releases = new AtomicInteger(0);
+		for(int i = 0; i < THREADS * ITERATIONS; i++)
+		{
+			counter.decrement("project", new ReferenceCounter.ReleaseAction<String>()
+			{
+				@Override
+				public void release(String key)
+				{
+					releases.incrementAndGet();
+				}
+			});
+		}
+		Assert.assertEquals(0, counter.get("project"));
+		Assert.assertEquals(1, releases.get());
+	}
+
+}
@@ -0,0 +1,140 @@
+package org.geppetto.simulation.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.ZipFile;
+
+import org.geppetto.core.data.DataManagerHelper;
+import org.geppetto.core.data.DefaultGeppettoDataManager;
+import org.geppetto.core.data.model.ISimulationResult;
+import org.geppetto.core.data.model.ResultsFormat;
+import org.geppetto.simulation.manager.ResultsUploadPipeline;
+import org.geppetto.simulation.utilities.StreamingZipper;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks that the results of a simulator are handed over together, in order, once they are all uploaded, and that a failure is reported once. The default data manager keeps the
+ * results where they are instead of uploading them.
+ *
+ */
+public class ResultsUploadPipelineTest
+{
+
+	private static Path input;
+
+	@BeforeClass
+	public static void setUp() throws IOException
+	{
+		DataManagerHelper.setDataManager(new DefaultGeppettoDataManager());
+		input = Files.createTempDirectory("results");
+	}
+
+	/**
+	 * Collects what the pipeline hands over
+	 */
+	private static class Listener implements ResultsUploadPipeline.ResultsListener
+	{
+		private CountDownLatch done = new CountDownLatch(1);
+		private AtomicReference<List<ISimulationResult>> results = new AtomicReference<List<ISimulationResult>>();
+		private AtomicReference<Exception> failure = new AtomicReference<Exception>();
+		private AtomicInteger calls = new AtomicInteger(0);
+
+		@Override
+		public void resultsUploaded(List<ISimulationResult> simulationResults)
+		{
+			results.set(simulationResults);
+			calls.incrementAndGet();
+			done.countDown();
+		}
+
+		@Override
+		public void resultsFailed(Exception e)
+		{
+			failure.set(e);
+			calls.incrementAndGet();
+			done.countDown();
+		}
+
+		private void await() throws InterruptedException
+		{
+			Assert.assertTrue(done.await(30, TimeUnit.SECONDS));
+		}
+	}
+
+	private static File createFile(String name, String content) throws IOException
+	{
+		return Files.write(input.resolve(name), content.getBytes(StandardCharsets.UTF_8)).toFile();
+	}
+
+	private static File getFile(ISimulationResult result) throws IOException, URISyntaxException
+	{
+		return new File(new URL(result.getResult().getUrl()).toURI());
+	}
+
+	@Test
+	public void testResultsAreUploadedTogether() throws IOException, InterruptedException, URISyntaxException
+	{
+		Map<File, ResultsFormat> results = new LinkedHashMap<File, ResultsFormat>();
+		File first = createFile("first.h5", "first recording");
+		File second = createFile("second.h5", "second recording");
+		results.put(first, ResultsFormat.GEPPETTO_RECORDING);
+		results.put(createFile("neuron.dat", "raw values"), ResultsFormat.RAW);
+		results.put(second, ResultsFormat.GEPPETTO_RECORDING);
+		results.put(createFile("script.py", "print('raw')"), ResultsFormat.RAW);
+
+		Listener listener = new Listener();
+		new ResultsUploadPipeline(2, StreamingZipper.STORE).process(TestUtilities.createExperiment(1, 1), "hhcell", results, listener);
+		listener.await();
+
+		Assert.assertNull(listener.failure.get());
+		List<ISimulationResult> uploaded = listener.results.get();
+		Assert.assertEquals(3, uploaded.size());
+		Assert.assertEquals(ResultsFormat.GEPPETTO_RECORDING, uploaded.get(0).getFormat());
+		Assert.assertEquals(first, getFile(uploaded.get(0)));
+		Assert.assertEquals(ResultsFormat.GEPPETTO_RECORDING, uploaded.get(1).getFormat());
+		Assert.assertEquals(second, getFile(uploaded.get(1)));
+		// the RAW results come last, zipped together
+		Assert.assertEquals(ResultsFormat.RAW, uploaded.get(2).getFormat());
+		try(ZipFile zip = new ZipFile(getFile(uploaded.get(2))))
+		{
+			Assert.assertEquals(2, zip.size());
+			Assert.assertNotNull(zip.getEntry("neuron.dat"));
+			Assert.assertNotNull(zip.getEntry("script.py"));
+		}
+	}
+
+	@Test
+	public void testFailureIsReportedOnce() throws IOException, InterruptedException
+	{
+		Map<File, ResultsFormat> results = new LinkedHashMap<File, ResultsFormat>();
+		results.put(createFile("recording.h5", "recording"), ResultsFormat.GEPPETTO_RECORDING);
+		// missing files can't be zipped
+		results.put(input.resolve("missing.dat").toFile(), ResultsFormat.RAW);
+		results.put(input.resolve("missing.txt").toFile(), ResultsFormat.RAW);
+
+		Listener listener = new Listener();
+		new ResultsUploadPipeline(2, StreamingZipper.STORE).process(TestUtilities.createExperiment(1, 2), "hhcell", results, listener);
+		listener.await();
+
+		// the other results of the simulator are given the time to come through
+		Thread.sleep(500);
+		Assert.assertNotNull(listener.failure.get());
+		Assert.assertNull(listener.results.get());
+		Assert.assertEquals(1, listener.calls.get());
+	}
+
+}
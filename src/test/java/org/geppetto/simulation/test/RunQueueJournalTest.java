@@ -0,0 +1,161 @@
+package org.geppetto.simulation.test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.geppetto.core.data.DefaultGeppettoDataManager;
+import org.geppetto.core.data.IGeppettoDataManager;
+import org.geppetto.core.data.model.IExperiment;
+import org.geppetto.core.data.model.IUser;
+import org.geppetto.core.data.model.IUserGroup;
+import org.geppetto.core.data.model.UserPrivileges;
+import org.geppetto.simulation.manager.RunQueueJournal;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks that the run queue journal gives back the pending experiments after a restart
+ *
+ */
+public class RunQueueJournalTest
+{
+
+	private static IUser alice;
+
+	private static IUser bob;
+
+	@BeforeClass
+	public static void setUp()
+	{
+		IGeppettoDataManager dataManager = new DefaultGeppettoDataManager();
+		List<UserPrivileges> privileges = new ArrayList<UserPrivileges>();
+		privileges.add(UserPrivileges.RUN_EXPERIMENT);
+		IUserGroup users = dataManager.newUserGroup("users", privileges, 0, 0);
+		alice = dataManager.newUser("alice", "pwd", true, users);
+		bob = dataManager.newUser("bob smith", "pwd", true, users);
+	}
+
+	private static Path createJournalFile() throws IOException
+	{
+		return Files.createTempDirectory("journal").resolve("runQueue.journal");
+	}
+
+	@Test
+	public void testReplay() throws IOException
+	{
+		Path file = createJournalFile();
+		RunQueueJournal journal = new RunQueueJournal(file);
+		Assert.assertFalse(journal.exists());
+		IExperiment first = TestUtilities.createExperiment(1, 1);
+		IExperiment second = TestUtilities.createExperiment(1, 2);
+		IExperiment third = TestUtilities.createExperiment(2, 1);
+		journal.queued(alice, first);
+		journal.queued(bob, second);
+		journal.queued(alice, third);
+		journal.started(first);
+		journal.done(second);
+		journal.close();
+
+		RunQueueJournal restarted = new RunQueueJournal(file);
+		Assert.assertTrue(restarted.exists());
+		List<RunQueueJournal.Entry> pending = restarted.replay();
+		Assert.assertEquals(2, pending.size());
+		Assert.assertEquals(alice.getLogin(), pending.get(0).getLogin());
+		Assert.assertEquals(1, pending.get(0).getProjectId());
+		Assert.assertEquals(1, pending.get(0).getExperimentId());
+		Assert.assertTrue(pending.get(0).isRunning());
+		Assert.assertEquals(2, pending.get(1).getProjectId());
+		Assert.assertEquals(1, pending.get(1).getExperimentId());
+		Assert.assertFalse(pending.get(1).isRunning());
+	}
+
+	@Test
+	public void testLoginIsEncoded() throws IOException
+	{
+		Path file = createJournalFile();
+		RunQueueJournal journal = new RunQueueJournal(file);
+		journal.queued(bob, TestUtilities.createExperiment(3, 4));
+		journal.close();
+
+		List<RunQueueJournal.Entry> pending = new RunQueueJournal(file).replay();
+		Assert.assertEquals(1, pending.size());
+		Assert.assertEquals(bob.getLogin(), pending.get(0).getLogin());
+	}
+
+	@Test
+	public void testTornLineIsSkipped() throws IOException
+	{
+		Path file = createJournalFile();
+		RunQueueJournal journal = new RunQueueJournal(file);
+		journal.queued(alice, TestUtilities.createExperiment(1, 1));
+		journal.close();
+		// the server crashed while journaling experiment 42, the line it left still parses
+		Files.write(file, "Q\talice\t1\t4".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+		List<RunQueueJournal.Entry> pending = new RunQueueJournal(file).replay();
+		Assert.assertEquals(1, pending.size());
+		Assert.assertEquals(1, pending.get(0).getExperimentId());
+	}
+
+	@Test
+	public void testMalformedLinesAreSkipped() throws IOException
+	{
+		Path file = createJournalFile();
+		Files.write(file, "Q\talice\t1\t1\nX\t1\t1\nD\t1\tone\nQ\talice\t1\t2\n".getBytes(StandardCharsets.UTF_8));
+
+		List<RunQueueJournal.Entry> pending = new RunQueueJournal(file).replay();
+		Assert.assertEquals(2, pending.size());
+		Assert.assertEquals(1, pending.get(0).getExperimentId());
+		Assert.assertEquals(2, pending.get(1).getExperimentId());
+	}
+
+	@Test
+	public void testCompaction() throws IOException
+	{
+		Path file = createJournalFile();
+		RunQueueJournal journal = new RunQueueJournal(file);
+		for(int i = 0; i < 100; i++)
+		{
+			IExperiment experiment = TestUtilities.createExperiment(1, i);
+			journal.queued(alice, experiment);
+			journal.started(experiment);
+			journal.done(experiment);
+		}
+		long size = Files.size(file);
+
+		Map<IUser, Collection<IExperiment>> queued = new HashMap<IUser, Collection<IExperiment>>();
+		queued.put(alice, Arrays.asList(TestUtilities.createExperiment(1, 100)));
+		journal.compact(queued);
+		Assert.assertTrue(Files.size(file) < size);
+		Assert.assertFalse(Files.exists(file.resolveSibling(file.getFileName() + ".tmp")));
+
+		// the journal is appended to after being compacted
+		journal.queued(bob, TestUtilities.createExperiment(1, 101));
+		journal.close();
+		List<RunQueueJournal.Entry> pending = new RunQueueJournal(file).replay();
+		Assert.assertEquals(2, pending.size());
+		Assert.assertEquals(100, pending.get(0).getExperimentId());
+		Assert.assertEquals(101, pending.get(1).getExperimentId());
+	}
+
+	@Test
+	public void testDelete() throws IOException
+	{
+		Path file = createJournalFile();
+		RunQueueJournal journal = new RunQueueJournal(file);
+		journal.queued(alice, TestUtilities.createExperiment(1, 1));
+		journal.delete();
+		Assert.assertFalse(journal.exists());
+	}
+
+}
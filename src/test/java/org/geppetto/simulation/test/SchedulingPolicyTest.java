@@ -0,0 +1,142 @@
+package org.geppetto.simulation.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.geppetto.core.data.DefaultGeppettoDataManager;
+import org.geppetto.core.data.IGeppettoDataManager;
+import org.geppetto.core.data.model.IUser;
+import org.geppetto.core.data.model.IUserGroup;
+import org.geppetto.core.data.model.UserPrivileges;
+import org.geppetto.simulation.scheduling.IExperimentSchedulingPolicy;
+import org.geppetto.simulation.scheduling.PrioritySchedulingPolicy;
+import org.geppetto.simulation.scheduling.RoundRobinSchedulingPolicy;
+import org.geppetto.simulation.scheduling.WeightedFairShareSchedulingPolicy;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks the order in which the scheduling policies serve the users' queues
+ */
+public class SchedulingPolicyTest
+{
+
+	private static IUser alice;
+	private static IUser bob;
+	private static IUser carol;
+
+	@BeforeClass
+	public static void setUp()
+	{
+		IGeppettoDataManager dataManager = new DefaultGeppettoDataManager();
+		List<UserPrivileges> privileges = new ArrayList<UserPrivileges>();
+		privileges.add(UserPrivileges.RUN_EXPERIMENT);
+		IUserGroup students = dataManager.newUserGroup("students", privileges, 0, 0);
+		IUserGroup researchers = dataManager.newUserGroup("researchers", privileges, 0, 0);
+		alice = dataManager.newUser("alice", "pwd", true, students);
+		bob = dataManager.newUser("bob", "pwd", true, students);
+		carol = dataManager.newUser("carol", "pwd", true, researchers);
+	}
+
+	/**
+	 * Serves the first user of the order n times and returns who was served
+	 */
+	private List<IUser> serve(IExperimentSchedulingPolicy policy, List<IUser> waiting, int n)
+	{
+		List<IUser> served = new ArrayList<IUser>();
+		for(int i = 0; i < n; i++)
+		{
+			IUser next = policy.orderUsers(waiting).get(0);
+			policy.experimentStarted(next, null);
+			served.add(next);
+		}
+		return served;
+	}
+
+	@Test
+	public void testRoundRobin()
+	{
+		IExperimentSchedulingPolicy policy = new RoundRobinSchedulingPolicy();
+		List<IUser> served = serve(policy, Arrays.asList(alice, bob, carol), 6);
+		Assert.assertEquals(Arrays.asList(alice, bob, carol, alice, bob, carol), served);
+	}
+
+	@Test
+	public void testRoundRobinForgetsIdleUsers()
+	{
+		IExperimentSchedulingPolicy policy = new RoundRobinSchedulingPolicy();
+		Assert.assertEquals(Arrays.asList(bob, alice), serve(policy, Arrays.asList(bob, alice), 2));
+		// bob and alice have nothing queued anymore, they are forgotten once carol was served after them
+		Assert.assertEquals(Arrays.asList(carol, carol), serve(policy, Arrays.asList(carol), 2));
+		// if they were remembered bob would go first
+		Assert.assertEquals(alice, policy.orderUsers(Arrays.asList(alice, bob)).get(0));
+	}
+
+	@Test
+	public void testRoundRobinRemembersRecentUsers()
+	{
+		IExperimentSchedulingPolicy policy = new RoundRobinSchedulingPolicy();
+		Assert.assertEquals(Arrays.asList(alice), serve(policy, Arrays.asList(alice, bob), 1));
+		// alice's queue is empty while bob waits
+		policy.orderUsers(Arrays.asList(bob));
+		// alice queues again, she doesn't go before bob who was waiting
+		Assert.assertEquals(Arrays.asList(bob, alice), serve(policy, Arrays.asList(alice, bob), 2));
+	}
+
+	@Test
+	public void testWeightedFairShare()
+	{
+		Map<String, Integer> weights = new HashMap<String, Integer>();
+		weights.put("researchers", 3);
+		IExperimentSchedulingPolicy policy = new WeightedFairShareSchedulingPolicy(weights);
+		List<IUser> served = serve(policy, Arrays.asList(alice, carol), 8);
+		int carolRuns = 0;
+		for(IUser user : served)
+		{
+			if(user == carol)
+			{
+				carolRuns++;
+			}
+		}
+		Assert.assertEquals(6, carolRuns);
+	}
+
+	@Test
+	public void testWeightedFairShareIdleGroup()
+	{
+		Map<String, Integer> weights = new HashMap<String, Integer>();
+		weights.put("researchers", 3);
+		IExperimentSchedulingPolicy policy = new WeightedFairShareSchedulingPolicy(weights);
+		serve(policy, Arrays.asList(alice, carol), 8);
+		// the students are idle while the researchers keep running
+		serve(policy, Arrays.asList(carol), 30);
+		// back from idle the students don't get the runs they missed
+		List<IUser> served = serve(policy, Arrays.asList(alice, carol), 4);
+		int aliceRuns = 0;
+		for(IUser user : served)
+		{
+			if(user == alice)
+			{
+				aliceRuns++;
+			}
+		}
+		Assert.assertEquals(1, aliceRuns);
+	}
+
+	@Test
+	public void testPriority()
+	{
+		Map<String, Integer> priorities = new HashMap<String, Integer>();
+		priorities.put("researchers", 1);
+		IExperimentSchedulingPolicy policy = new PrioritySchedulingPolicy(priorities, new RoundRobinSchedulingPolicy());
+		List<IUser> served = serve(policy, Arrays.asList(alice, bob, carol), 3);
+		Assert.assertEquals(Arrays.asList(carol, carol, carol), served);
+		served = serve(policy, Arrays.asList(alice, bob), 2);
+		Assert.assertEquals(Arrays.asList(alice, bob), served);
+	}
+
+}
@@ -0,0 +1,113 @@
+package org.geppetto.simulation.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.geppetto.simulation.utilities.StreamingZipper;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks that the files zipped by the streaming zipper can be read back and that only the ones worth it are compressed
+ *
+ */
+public class StreamingZipperTest
+{
+
+	private static Path input;
+
+	private static File values;
+
+	private static File archive;
+
+	@BeforeClass
+	public static void setUp() throws IOException
+	{
+		input = Files.createTempDirectory("zipper");
+		StringBuilder content = new StringBuilder();
+		for(int i = 0; i < 1000; i++)
+		{
+			content.append(i % 10).append(" 0.0 -65.0\n");
+		}
+		values = Files.write(input.resolve("values.dat"), content.toString().getBytes(StandardCharsets.UTF_8)).toFile();
+		archive = Files.write(input.resolve("archive.zip"), new byte[] { 1, 2, 3, 4 }).toFile();
+	}
+
+	private static String read(ZipFile zip, ZipEntry entry) throws IOException
+	{
+		try(InputStream in = zip.getInputStream(entry))
+		{
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int read;
+			while((read = in.read(buffer)) > 0)
+			{
+				out.write(buffer, 0, read);
+			}
+			return new String(out.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+
+	@Test
+	public void testCompressed() throws IOException
+	{
+		StreamingZipper zipper = new StreamingZipper(input.resolve("out/compressed.zip").toString(), Deflater.DEFAULT_COMPRESSION);
+		zipper.addToZip(values);
+		zipper.addToZip(archive);
+		Path zipped = zipper.processAddedFilesAndZip();
+
+		try(ZipFile zip = new ZipFile(zipped.toFile()))
+		{
+			ZipEntry valuesEntry = zip.getEntry("values.dat");
+			Assert.assertEquals(ZipEntry.DEFLATED, valuesEntry.getMethod());
+			Assert.assertTrue(valuesEntry.getCompressedSize() < values.length());
+			Assert.assertEquals(new String(Files.readAllBytes(values.toPath()), StandardCharsets.UTF_8), read(zip, valuesEntry));
+			// already compressed, stored as it is
+			ZipEntry archiveEntry = zip.getEntry("archive.zip");
+			Assert.assertEquals(ZipEntry.STORED, archiveEntry.getMethod());
+			Assert.assertEquals(archive.length(), archiveEntry.getSize());
+		}
+	}
+
+	@Test
+	public void testStored() throws IOException
+	{
+		StreamingZipper zipper = new StreamingZipper(input.resolve("out/stored.zip").toString(), StreamingZipper.STORE);
+		zipper.addToZip(values);
+		Path zipped = zipper.processAddedFilesAndZip();
+
+		try(ZipFile zip = new ZipFile(zipped.toFile()))
+		{
+			ZipEntry valuesEntry = zip.getEntry("values.dat");
+			Assert.assertEquals(ZipEntry.STORED, valuesEntry.getMethod());
+			Assert.assertEquals(values.length(), valuesEntry.getCompressedSize());
+			Assert.assertEquals(new String(Files.readAllBytes(values.toPath()), StandardCharsets.UTF_8), read(zip, valuesEntry));
+		}
+	}
+
+	@Test
+	public void testSameNames() throws IOException
+	{
+		File other = Files.write(Files.createDirectories(input.resolve("other")).resolve("values.dat"), "other".getBytes(StandardCharsets.UTF_8)).toFile();
+		StreamingZipper zipper = new StreamingZipper(input.resolve("out/names.zip").toString(), Deflater.DEFAULT_COMPRESSION);
+		zipper.addToZip(values);
+		zipper.addToZip(other);
+		Path zipped = zipper.processAddedFilesAndZip();
+
+		try(ZipFile zip = new ZipFile(zipped.toFile()))
+		{
+			Assert.assertEquals(2, zip.size());
+			Assert.assertEquals("other", read(zip, zip.getEntry("1_values.dat")));
+		}
+	}
+
+}
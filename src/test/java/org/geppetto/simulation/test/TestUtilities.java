@@ -1,8 +1,14 @@
 
 package org.geppetto.simulation.test;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.util.Date;
 
+import org.geppetto.core.data.model.IExperiment;
+import org.geppetto.core.data.model.IGeppettoProject;
+
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonDeserializationContext;
@@ -33,4 +39,42 @@ public class TestUtilities
 		});
 		return builder.create();
 	}
+
+	/**
+	 * @param projectId
+	 * @param experimentId
+	 * @return an experiment which only knows its id and the id of its project, for the classes which don't need more
+	 */
+	public static IExperiment createExperiment(final long projectId, final long experimentId)
+	{
+		final IGeppettoProject project = (IGeppettoProject) Proxy.newProxyInstance(IGeppettoProject.class.getClassLoader(), new Class<?>[] { IGeppettoProject.class },
+				new InvocationHandler()
+				{
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args)
+					{
+						if(method.getName().equals("getId"))
+						{
+							return projectId;
+						}
+						throw new UnsupportedOperationException(method.getName());
+					}
+				});
+		return (IExperiment) Proxy.newProxyInstance(IExperiment.class.getClassLoader(), new Class<?>[] { IExperiment.class }, new InvocationHandler()
+		{
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args)
+			{
+				if(method.getName().equals("getId"))
+				{
+					return experimentId;
+				}
+				if(method.getName().equals("getParentProject"))
+				{
+					return project;
+				}
+				throw new UnsupportedOperationException(method.getName());
+			}
+		});
+	}
 }
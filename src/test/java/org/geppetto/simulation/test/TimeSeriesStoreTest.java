@@ -0,0 +1,100 @@
+package org.geppetto.simulation.test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.geppetto.core.model.GeppettoSerializer;
+import org.geppetto.model.ExperimentState;
+import org.geppetto.model.GeppettoFactory;
+import org.geppetto.model.VariableValue;
+import org.geppetto.model.values.TimeSeries;
+import org.geppetto.model.values.ValuesFactory;
+import org.geppetto.model.values.ValuesPackage;
+import org.geppetto.simulation.manager.StoredTimeSeries;
+import org.geppetto.simulation.manager.TimeSeriesStore;
+import org.geppetto.simulation.manager.TimeSeriesView;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks that the time series store spills the least recently used values to disk and gives them back
+ *
+ */
+public class TimeSeriesStoreTest
+{
+
+	private static TimeSeries createTimeSeries(int size)
+	{
+		TimeSeries timeSeries = ValuesFactory.eINSTANCE.createTimeSeries();
+		for(int i = 0; i < size; i++)
+		{
+			timeSeries.getValue().add((double) i);
+		}
+		return timeSeries;
+	}
+
+	@Test
+	public void testLeastRecentlyUsedAreSpilled() throws IOException
+	{
+		// room for the values of two series
+		TimeSeriesStore store = new TimeSeriesStore(2 * 10 * 8, Files.createTempDirectory("timeSeries"));
+		StoredTimeSeries first = store.store(createTimeSeries(10));
+		StoredTimeSeries second = store.store(createTimeSeries(10));
+		first.getValue();
+		StoredTimeSeries third = store.store(createTimeSeries(10));
+
+		Assert.assertTrue(first.isOnHeap());
+		Assert.assertFalse(second.isOnHeap());
+		Assert.assertTrue(third.isOnHeap());
+		Assert.assertEquals(2 * 10 * 8, store.getHeapBytes());
+		Assert.assertEquals(10 * 8, store.getSpilledBytes());
+
+		// the spilled values are still there
+		Assert.assertEquals(10, second.getValue().size());
+		Assert.assertEquals(9d, second.getValue().get(9), 0);
+	}
+
+	@Test
+	public void testRelease() throws IOException
+	{
+		TimeSeriesStore store = new TimeSeriesStore(1024, Files.createTempDirectory("timeSeries"));
+		StoredTimeSeries timeSeries = store.store(createTimeSeries(10));
+		Assert.assertEquals(10 * 8, store.getHeapBytes());
+		store.release(timeSeries);
+		Assert.assertEquals(0, store.getHeapBytes());
+		// whoever still holds the series can read it
+		Assert.assertEquals(10, timeSeries.getValue().size());
+		Assert.assertEquals(9d, timeSeries.getValue().get(9), 0);
+	}
+
+	@Test
+	public void testCopyAndSerialize() throws IOException
+	{
+		StoredTimeSeries timeSeries = new TimeSeriesStore(1024, null).store(createTimeSeries(4));
+		Assert.assertTrue(timeSeries.eIsSet(ValuesPackage.Literals.TIME_SERIES__VALUE));
+		Assert.assertEquals(timeSeries.getValue(), timeSeries.eGet(ValuesPackage.Literals.TIME_SERIES__VALUE));
+
+		VariableValue variableValue = GeppettoFactory.eINSTANCE.createVariableValue();
+		variableValue.setValue(timeSeries);
+		TimeSeries copy = (TimeSeries) EcoreUtil.copy(variableValue).getValue();
+		Assert.assertArrayEquals(new Object[] { 0d, 1d, 2d, 3d }, copy.getValue().toArray());
+
+		// the experiment states sent to the clients have either the stored series or a view of it
+		ExperimentState withView = GeppettoFactory.eINSTANCE.createExperimentState();
+		withView.getRecordedVariables().add(TimeSeriesView.createView(variableValue));
+		String json = GeppettoSerializer.serializeToJSON(withView);
+		Assert.assertTrue(json, json.contains("3.0"));
+		ExperimentState withStored = GeppettoFactory.eINSTANCE.createExperimentState();
+		withStored.getRecordedVariables().add(variableValue);
+		json = GeppettoSerializer.serializeToJSON(withStored);
+		Assert.assertTrue(json, json.contains("3.0"));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testReadOnly()
+	{
+		new TimeSeriesStore(1024, null).store(createTimeSeries(1)).getValue().add(1d);
+	}
+
+}
@@ -0,0 +1,57 @@
+package org.geppetto.simulation.test;
+
+import java.io.IOException;
+
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.geppetto.core.model.GeppettoSerializer;
+import org.geppetto.model.ExperimentState;
+import org.geppetto.model.GeppettoFactory;
+import org.geppetto.model.VariableValue;
+import org.geppetto.model.values.TimeSeries;
+import org.geppetto.model.values.ValuesFactory;
+import org.geppetto.model.values.ValuesPackage;
+import org.geppetto.simulation.manager.TimeSeriesView;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks that the values shared by a view are seen by EMF, which only copies and serialises the features which are set
+ */
+public class TimeSeriesViewTest
+{
+
+	private static VariableValue createView()
+	{
+		TimeSeries timeSeries = ValuesFactory.eINSTANCE.createTimeSeries();
+		timeSeries.getValue().add(0.5);
+		timeSeries.getValue().add(2.5);
+		VariableValue variableValue = GeppettoFactory.eINSTANCE.createVariableValue();
+		variableValue.setValue(timeSeries);
+		return TimeSeriesView.createView(variableValue);
+	}
+
+	@Test
+	public void testValueIsSet()
+	{
+		TimeSeries view = (TimeSeries) createView().getValue();
+		Assert.assertTrue(view.eIsSet(ValuesPackage.Literals.TIME_SERIES__VALUE));
+		Assert.assertEquals(view.getValue(), view.eGet(ValuesPackage.Literals.TIME_SERIES__VALUE));
+	}
+
+	@Test
+	public void testCopy()
+	{
+		TimeSeries copy = (TimeSeries) EcoreUtil.copy(createView()).getValue();
+		Assert.assertArrayEquals(new Object[] { 0.5, 2.5 }, copy.getValue().toArray());
+	}
+
+	@Test
+	public void testSerialize() throws IOException
+	{
+		ExperimentState experimentState = GeppettoFactory.eINSTANCE.createExperimentState();
+		experimentState.getRecordedVariables().add(createView());
+		String json = GeppettoSerializer.serializeToJSON(experimentState);
+		Assert.assertTrue(json, json.contains("2.5"));
+	}
+
+}